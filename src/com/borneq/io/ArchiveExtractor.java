@@ -0,0 +1,287 @@
+package com.borneq.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Inflater;
+
+/**
+ * Extracts selected zip ArchiveItems, directories with their subtrees, to
+ * target directory. All directories are created first in single pass, then
+ * files ordered by archive offset are split into batches run by executor.
+ * Each batch reuses one inflater and one pair of buffers for all its
+ * entries. Selected items are extracted relative to their parent.
+ */
+public class ArchiveExtractor {
+	private static final int BATCH_FILES = 256;
+	private static final long BATCH_BYTES = 4 << 20;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final ExecutorService executor;
+	private volatile boolean cancelled;
+	private ExtractListener listener;
+	private long progressMillis = 200;
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong lastProgress = new AtomicLong();
+	private long totalFiles;
+	private long totalBytes;
+	private long start;
+
+	private static class Target {
+		final ArchiveItem item;
+		final File file;
+
+		Target(ArchiveItem item, File file) {
+			this.item = item;
+			this.file = file;
+		}
+	}
+
+	public ArchiveExtractor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public void setListener(ExtractListener listener) {
+		this.listener = listener;
+	}
+
+	public void setProgressMillis(long progressMillis) {
+		this.progressMillis = progressMillis;
+	}
+
+	/**
+	 * Stops running extraction, extract then throws CancellationException.
+	 * Extractions started later are cancelled too, until reset.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Clears cancellation, so that extractor can be used again.
+	 */
+	public void reset() {
+		cancelled = false;
+	}
+
+	/**
+	 * Extracts selection to target, blocks until done. Entries which fail are
+	 * counted in result and do not stop others.
+	 */
+	public ExtractResult extract(Collection<ArchiveItem> selection, File target)
+			throws Exception {
+		if (cancelled)
+			throw new CancellationException();
+		files.set(0);
+		bytes.set(0);
+		totalFiles = 0;
+		totalBytes = 0;
+		start = System.nanoTime();
+		lastProgress.set(System.currentTimeMillis());
+		ExtractResult result = new ExtractResult();
+		List<Target> dirs = new ArrayList<Target>();
+		List<Target> entries = new ArrayList<Target>();
+		for (ArchiveItem item : selection)
+			collect(item, target, dirs, entries, result);
+		totalFiles = entries.size();
+		createDirectories(target, dirs, result);
+
+		// archive order keeps reads of each batch sequential
+		Collections.sort(entries, new Comparator<Target>() {
+			@Override
+			public int compare(Target t1, Target t2) {
+				long o1 = t1.item.getHeaderOffset();
+				long o2 = t2.item.getHeaderOffset();
+				return o1 < o2 ? -1 : o1 == o2 ? 0 : 1;
+			}
+		});
+		List<Future<ExtractResult>> futures;
+		futures = new ArrayList<Future<ExtractResult>>();
+		int from = 0;
+		long batchBytes = 0;
+		for (int i = 0; i < entries.size(); i++) {
+			batchBytes += entries.get(i).item.getCompressedSize();
+			if (i + 1 - from >= BATCH_FILES || batchBytes >= BATCH_BYTES
+					|| i + 1 == entries.size()) {
+				futures.add(executor.submit(new ExtractTask(entries.subList(
+						from, i + 1))));
+				from = i + 1;
+				batchBytes = 0;
+			}
+		}
+		try {
+			for (Future<ExtractResult> future : futures)
+				result.add(future.get());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw (Exception) e.getCause();
+		} finally {
+			if (cancelled)
+				for (Future<ExtractResult> future : futures)
+					future.cancel(false);
+		}
+		if (cancelled)
+			throw new CancellationException();
+
+		// writing files changed times of directories, deepest set first
+		for (int i = dirs.size() - 1; i >= 0; i--) {
+			Target dir = dirs.get(i);
+			long time = dir.item.lastModified();
+			if (time > 0)
+				dir.file.setLastModified(time);
+		}
+		result.nanos = System.nanoTime() - start;
+		ExtractListener listener = this.listener;
+		if (listener != null)
+			listener.extractProgress(files.get(), bytes.get(), totalFiles,
+					totalBytes, result.getBytesPerSecond());
+		return result;
+	}
+
+	/**
+	 * Adds item and its subtree, root stands for its children.
+	 */
+	private void collect(ArchiveItem item, File target, List<Target> dirs,
+			List<Target> entries, ExtractResult result) throws Exception {
+		ArchiveTree tree = item.getOwner();
+		List<ArchiveItem> stack = new ArrayList<ArchiveItem>();
+		int base;
+		if (item.path == null) {
+			base = 0;
+			List<ArchiveItem> childs = tree.getChildren(item);
+			if (childs != null)
+				stack.addAll(childs);
+		} else {
+			if (item.path.equals(".."))
+				return;
+			base = item.path.lastIndexOf(File.separatorChar) + 1;
+			stack.add(item);
+		}
+		while (!stack.isEmpty()) {
+			ArchiveItem it = stack.remove(stack.size() - 1);
+			String relative = it.path.substring(base);
+			if (!isSafe(relative)) {
+				result.error(new Exception("Path leads out of target: "
+						+ it.path));
+				continue;
+			}
+			File file = new File(target, relative);
+			if (it.isDirectory()) {
+				dirs.add(new Target(it, file));
+				List<ArchiveItem> childs = tree.getChildren(it);
+				if (childs != null)
+					stack.addAll(childs);
+			} else {
+				entries.add(new Target(it, file));
+				totalBytes += it.length();
+			}
+		}
+	}
+
+	/**
+	 * Rejects ".." components of malicious archive.
+	 */
+	private static boolean isSafe(String relative) {
+		int pos = 0;
+		while (pos <= relative.length()) {
+			int end = relative.indexOf(File.separatorChar, pos);
+			if (end < 0)
+				end = relative.length();
+			if (end - pos == 2 && relative.startsWith("..", pos))
+				return false;
+			pos = end + 1;
+		}
+		return true;
+	}
+
+	/**
+	 * Sorted paths put each directory after its parent, so single mkdir is
+	 * enough for most of them.
+	 */
+	private static void createDirectories(File target, List<Target> dirs,
+			ExtractResult result) {
+		Collections.sort(dirs, new Comparator<Target>() {
+			@Override
+			public int compare(Target t1, Target t2) {
+				return t1.file.getPath().compareTo(t2.file.getPath());
+			}
+		});
+		target.mkdirs();
+		for (Target dir : dirs) {
+			File file = dir.file;
+			if (file.mkdir() || file.isDirectory() || file.mkdirs())
+				result.directories++;
+			else
+				result.error(new Exception("Can not create " + file));
+		}
+	}
+
+	private void progress(long byteCount) {
+		long f = files.incrementAndGet();
+		long b = bytes.addAndGet(byteCount);
+		ExtractListener listener = this.listener;
+		if (listener == null)
+			return;
+		long now = System.currentTimeMillis();
+		long last = lastProgress.get();
+		if (now - last >= progressMillis
+				&& lastProgress.compareAndSet(last, now)) {
+			long nanos = System.nanoTime() - start;
+			listener.extractProgress(f, b, totalFiles, totalBytes,
+					nanos > 0 ? (long) (b * 1e9 / nanos) : 0);
+		}
+	}
+
+	private class ExtractTask implements Callable<ExtractResult> {
+		private final List<Target> batch;
+
+		ExtractTask(List<Target> batch) {
+			this.batch = batch;
+		}
+
+		@Override
+		public ExtractResult call() {
+			ExtractResult result = new ExtractResult();
+			Inflater inflater = InflaterPool.obtain();
+			byte[] in = new byte[BUFFER_SIZE];
+			byte[] buf = new byte[BUFFER_SIZE];
+			try {
+				for (Target target : batch) {
+					if (cancelled)
+						break;
+					ArchiveItem item = target.item;
+					try {
+						try (FileOutputStream out = new FileOutputStream(
+								target.file)) {
+							item.transferTo(out.getChannel(), inflater, in, buf);
+						}
+						long time = item.lastModified();
+						if (time > 0)
+							target.file.setLastModified(time);
+					} catch (Exception e) {
+						result.error(e);
+						continue;
+					}
+					result.files++;
+					result.bytes += item.length();
+					progress(item.length());
+				}
+			} finally {
+				InflaterPool.release(inflater);
+			}
+			return result;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.borneq.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Directory of organized tree snapshots, one file per archive. Snapshot is
+ * keyed by canonical archive path, size and modification time, it is stale
+ * when any of them differs. Items are stored in preorder with index of their
+ * parent, so loading needs neither sorting nor linking; items of current
+ * snapshot are mapped and read in single pass.
+ */
+public class ArchiveIndex {
+	private static final int MAGIC = 0x42514958;
+	private static final int FORMAT = 3;
+	private static final int FLAG_DIRECTORY = 1;
+	private static final int FLAG_IMPLICIT = 2;
+	// parent, flags, length, time, data location and name length
+	private static final int RECORD_SIZE = 4 + 1 + 8 + 4 + 4 + 8 + 8 + 4;
+
+	private final File dir;
+
+	public ArchiveIndex(File dir) {
+		this.dir = dir;
+	}
+
+	private File indexFile(String canonicalPath) {
+		return new File(dir, String.format("%08x.idx",
+				canonicalPath.hashCode()));
+	}
+
+	/**
+	 * Organized tree restored from snapshot, null if there is no snapshot of
+	 * archive or it is stale or damaged.
+	 */
+	public ArchiveTree load(String archiveName) throws Exception {
+		File archive = new File(archiveName);
+		String key = archive.getCanonicalPath();
+		File file = indexFile(key);
+		if (!file.isFile())
+			return null;
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			// header is read without mapping: mapping is released only by
+			// garbage collector and mapped file can not be replaced on Windows
+			ByteBuffer header = ByteBuffer.allocate((int) Math.min(
+					channel.size(), 4 + 4 + 4 + 2 * key.length() + 8 + 8));
+			while (header.hasRemaining())
+				if (channel.read(header) < 0)
+					break;
+			header.flip();
+			if (header.getInt() != MAGIC || header.getInt() != FORMAT)
+				return null;
+			if (!key.equals(getString(header))
+					|| header.getLong() != archive.length()
+					|| header.getLong() != archive.lastModified())
+				return null;
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					header.limit(), channel.size() - header.limit());
+			return read(buf, archiveName);
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String getString(ByteBuffer buf) {
+		int len = buf.getInt();
+		if (len < 0 || len > buf.remaining() / 2)
+			throw new BufferUnderflowException();
+		char[] chars = new char[len];
+		for (int i = 0; i < len; i++)
+			chars[i] = buf.getChar();
+		return new String(chars);
+	}
+
+	private static ArchiveTree read(ByteBuffer buf, String archiveName)
+			throws Exception {
+		ArchiveTree tree = new ArchiveTree(archiveName);
+		int count = buf.getInt();
+		if (count < 0 || count > buf.remaining() / RECORD_SIZE)
+			throw new BufferUnderflowException();
+		ArchiveItem[] items = new ArchiveItem[count];
+		int[] parents = new int[count];
+		for (int i = 0; i < count; i++) {
+			int parent = buf.getInt();
+			int flags = buf.get();
+			long length = buf.getLong();
+			int dosTime = buf.getInt();
+			int method = buf.getInt();
+			long compressedSize = buf.getLong();
+			long headerOffset = buf.getLong();
+			String name = getString(buf);
+			if (parent < -1 || parent >= i)
+				throw new IllegalArgumentException("Parent after child");
+			ArchiveItem item = new ArchiveItem(tree, parent < 0 ? name
+					: items[parent].path + File.separatorChar + name);
+			item.setFlags((flags & FLAG_DIRECTORY) != 0 ? 0 : 0x8000);
+			item.implicit = (flags & FLAG_IMPLICIT) != 0;
+			item.setLength(length);
+			item.setLocation(method, compressedSize, headerOffset);
+			if (!item.implicit)
+				item.setLastModified(dosTime);
+			items[i] = item;
+			parents[i] = parent;
+		}
+		tree.restore(items, parents);
+		return tree;
+	}
+
+	/**
+	 * Stores snapshot of organized eager tree, unchanged since it was read.
+	 * Snapshot is written to temporary file and renamed, so concurrent load
+	 * never sees partial one.
+	 */
+	public void save(ArchiveTree tree) throws Exception {
+		if (tree.isLazy())
+			throw new Exception("Lazy tree can not be saved");
+		if (tree.getSource() != null)
+			throw new Exception("Nested tree can not be saved");
+		if (tree.isModified())
+			throw new Exception("Modified tree can not be saved");
+		ArchiveItem root = (ArchiveItem) tree.getRoot();
+		if (root == null)
+			throw new Exception("save must be after organize");
+		File archive = new File(tree.getPath());
+		String key = archive.getCanonicalPath();
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Can not create " + dir);
+		File file = indexFile(key);
+		File tmp = File.createTempFile("idx", ".tmp", dir);
+		try {
+			int count;
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT);
+				putString(out, key);
+				out.writeLong(archive.length());
+				out.writeLong(archive.lastModified());
+				out.writeInt(0);
+				count = write(out, root);
+			}
+			// record count is known after writing: entries with equal paths
+			// are all written, while path index keeps only one of them
+			try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+				raf.seek(4 + 4 + 4 + 2 * key.length() + 8 + 8);
+				raf.writeInt(count);
+			}
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+				throw new IOException("Can not rename " + tmp + " to " + file);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	private static void putString(DataOutputStream out, String s)
+			throws IOException {
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+
+	/**
+	 * Writes descendants of root in preorder, children in their sorted order.
+	 * Returns number of records written.
+	 */
+	private static int write(DataOutputStream out, ArchiveItem root)
+			throws IOException {
+		List<ArchiveItem> stack = new ArrayList<ArchiveItem>();
+		int[] stackParents = new int[16];
+		stackParents = push(stack, stackParents, root, -1);
+		int index = 0;
+		while (!stack.isEmpty()) {
+			int top = stack.size() - 1;
+			ArchiveItem item = stack.remove(top);
+			String path = item.path;
+			out.writeInt(stackParents[top]);
+			out.writeByte((item.isDirectory() ? FLAG_DIRECTORY : 0)
+					| (item.implicit ? FLAG_IMPLICIT : 0));
+			out.writeLong(item.length());
+			out.writeInt(item.getDosTime());
+			out.writeInt(item.getMethod());
+			out.writeLong(item.getCompressedSize());
+			out.writeLong(item.getHeaderOffset());
+			putString(out,
+					path.substring(path.lastIndexOf(File.separatorChar) + 1));
+			stackParents = push(stack, stackParents, item, index++);
+		}
+		return index;
+	}
+
+	private static int[] push(List<ArchiveItem> stack, int[] stackParents,
+			ArchiveItem dir, int dirIndex) {
+		if (dir.childs == null)
+			return stackParents;
+		int size = stack.size() + dir.childs.size();
+		if (size > stackParents.length)
+			stackParents = Arrays.copyOf(stackParents,
+					Math.max(size, stackParents.length * 2));
+		for (int i = dir.childs.size() - 1; i >= 0; i--) {
+			stackParents[stack.size()] = dirIndex;
+			stack.add(dir.childs.get(i));
+		}
+		return stackParents;
+	}
+}
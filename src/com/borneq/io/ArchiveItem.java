@@ -1,7 +1,13 @@
 package com.borneq.io;
 
-import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.Inflater;
 
 import javax.swing.Icon;
 import org.apache.commons.io.FilenameUtils;
@@ -13,9 +19,26 @@ public class ArchiveItem implements Item {
 	private ArchiveTree owner;
 	Item parent;
 	List<ArchiveItem> childs;
+	// lazy mode: not yet distributed descendants, null when expanded
+	List<ArchiveItem> pending;
+	// directory not present in archive, created for its descendants
+	boolean implicit;
 	private boolean mIsDirectory;
+	// DOS time is decoded on first lastModified call
+	private static final long UNDECODED = Long.MIN_VALUE;
+	private int mDosTime;
 	private long mLastModified;
 	private long mLength;
+	// location of zip entry data, method -1 if unknown
+	private int method = -1;
+	private long compressedSize;
+	private long headerOffset;
+	// directory subtree sums, final once aggregated is set
+	volatile boolean aggregated;
+	private long totalLength;
+	private int fileCount;
+	private int directoryCount;
+	private int newestDosTime;
 
 	public ArchiveItem(ArchiveTree owner, String path) {
 		super();
@@ -25,9 +48,109 @@ public class ArchiveItem implements Item {
 			mIsDirectory = true;
 	}
 
+	ArchiveTree getOwner() {
+		return owner;
+	}
+
+	int getDosTime() {
+		return mDosTime;
+	}
+
+	/**
+	 * Adds child and its subtree sums, child sums must be final.
+	 */
+	void aggregate(ArchiveItem child) {
+		if (child.mIsDirectory) {
+			directoryCount += child.directoryCount + 1;
+			fileCount += child.fileCount;
+			totalLength += child.totalLength;
+			newer(child.newestDosTime);
+		} else {
+			fileCount++;
+			totalLength += child.mLength;
+		}
+		newer(child.mDosTime);
+	}
+
+	/**
+	 * Removes sums of child subtree, reverse of aggregate.
+	 */
+	void subtract(ArchiveItem child) {
+		if (child.mIsDirectory) {
+			directoryCount -= child.directoryCount + 1;
+			fileCount -= child.fileCount;
+			totalLength -= child.totalLength;
+		} else {
+			fileCount--;
+			totalLength -= child.mLength;
+		}
+	}
+
+	/**
+	 * Newest time of subtree which can be recomputed from children only.
+	 */
+	int getNewestDosTime() {
+		return newestDosTime;
+	}
+
+	void recomputeNewest() {
+		newestDosTime = 0;
+		if (childs != null)
+			for (ArchiveItem child : childs) {
+				newer(child.mDosTime);
+				if (child.mIsDirectory)
+					newer(child.newestDosTime);
+			}
+	}
+
+	private void newer(int dosTime) {
+		// date is in high bits, so unsigned order is chronological
+		if ((dosTime & 0xFFFFFFFFL) > (newestDosTime & 0xFFFFFFFFL))
+			newestDosTime = dosTime;
+	}
+
+	private void ensureAggregated() {
+		if (!aggregated)
+			owner.aggregate(this);
+	}
+
+	/**
+	 * Total length of files in directory subtree, 0 for file.
+	 */
+	public long getTotalLength() {
+		ensureAggregated();
+		return totalLength;
+	}
+
+	/**
+	 * Number of files in directory subtree.
+	 */
+	public int getFileCount() {
+		ensureAggregated();
+		return fileCount;
+	}
+
+	/**
+	 * Number of directories in directory subtree, without directory itself.
+	 */
+	public int getDirectoryCount() {
+		ensureAggregated();
+		return directoryCount;
+	}
+
+	/**
+	 * Newest modification time in directory subtree, 0 if empty.
+	 */
+	public long getNewestModified() {
+		ensureAggregated();
+		if (newestDosTime == 0)
+			return 0;
+		return TimeUtil.dosToJavaTime(newestDosTime & 0xFFFFFFFFL);
+	}
+
 	@Override
 	public int compareTo(Item o) {
-		return path.compareTo(((ArchiveItem) o).path + File.separator);
+		return ArchiveTree.comparePaths(path, ((ArchiveItem) o).path);
 	}
 
 	@Override
@@ -66,6 +189,18 @@ public class ArchiveItem implements Item {
 		}
 	}
 
+	@Override
+	public Future<?> listItems(ExecutorService executor, int batchSize,
+			ItemListListener listener) {
+		return new ItemLister(this, batchSize, listener) {
+			@Override
+			protected void list() throws Exception {
+				for (Item item : owner.getItems(ArchiveItem.this, false))
+					add(item);
+			}
+		}.submit(executor);
+	}
+
 	@Override
 	public String getName() {
 		return FilenameUtils.getName(path);
@@ -74,7 +209,7 @@ public class ArchiveItem implements Item {
 	@Override
 	public Item getParentDirectory() {
 		if (path == null)
-			return new RealItem(owner.getDir());
+			return owner.getParentDirectory();
 		else
 			return parent;
 	}
@@ -92,6 +227,8 @@ public class ArchiveItem implements Item {
 
 	@Override
 	public long lastModified() {
+		if (mLastModified == UNDECODED)
+			mLastModified = TimeUtil.dosToJavaTime(mDosTime & 0xFFFFFFFFL);
 		return mLastModified;
 	}
 
@@ -100,8 +237,12 @@ public class ArchiveItem implements Item {
 		return mLength;
 	}
 
+	/**
+	 * Sets DOS time, conversion to Java time is deferred to lastModified.
+	 */
 	public void setLastModified(long time) {
-		mLastModified = TimeUtil.dosToJavaTime(time);
+		mDosTime = (int) time;
+		mLastModified = UNDECODED;
 	}
 
 	public void setLength(long length) {
@@ -109,6 +250,74 @@ public class ArchiveItem implements Item {
 		mLength = length;
 	}
 
+	/**
+	 * Sets location of entry data in zip archive.
+	 */
+	public void setLocation(int method, long compressedSize, long headerOffset) {
+		this.method = method;
+		this.compressedSize = compressedSize;
+		this.headerOffset = headerOffset;
+	}
+
+	int getMethod() {
+		return method;
+	}
+
+	long getCompressedSize() {
+		return compressedSize;
+	}
+
+	long getHeaderOffset() {
+		return headerOffset;
+	}
+
+	/**
+	 * True if entry data can be read by getData, openStream and openChannel.
+	 */
+	public boolean hasData() {
+		return method >= 0 && !mIsDirectory;
+	}
+
+	private void checkData() throws Exception {
+		if (!hasData())
+			throw new Exception("No data location of " + path);
+	}
+
+	/**
+	 * Entry data. Stored entry gives read-only slice of archive mapping
+	 * without copying, compressed one is inflated into new buffer.
+	 */
+	public ByteBuffer getData() throws Exception {
+		checkData();
+		return owner.getContent().getData(method, headerOffset,
+				compressedSize, mLength);
+	}
+
+	public InputStream openStream() throws Exception {
+		checkData();
+		return owner.getContent().openStream(method, headerOffset,
+				compressedSize);
+	}
+
+	/**
+	 * Channel of entry data, for stored entry it is SeekableByteChannel.
+	 */
+	public ReadableByteChannel openChannel() throws Exception {
+		checkData();
+		return owner.getContent().openChannel(method, headerOffset,
+				compressedSize);
+	}
+
+	/**
+	 * Writes entry data to out with inflater and buffers reused by caller.
+	 */
+	void transferTo(WritableByteChannel out, Inflater inflater, byte[] in,
+			byte[] buf) throws Exception {
+		checkData();
+		owner.getContent().transferTo(method, headerOffset, compressedSize,
+				out, inflater, in, buf);
+	}
+
 	public void setFlags(int flags) {
 		mIsDirectory = (flags & 0x8000) == 0;
 	}
@@ -0,0 +1,9 @@
+package com.borneq.io;
+
+/**
+ * Progress of streaming archive reader, position is offset in archive file
+ * reached so far and size is archive file size.
+ */
+public interface ArchiveReadListener {
+	void readProgress(long entries, long position, long size);
+}
@@ -0,0 +1,11 @@
+package com.borneq.io;
+
+/**
+ * Receives archive entries from archive readers. Paths use platform separator
+ * and do not end with separator, flags are unix mode bits and time is DOS
+ * time.
+ */
+public interface ArchiveSink {
+	void addEntry(String path, int flags, long length, long dosTime)
+			throws Exception;
+}
@@ -1,24 +1,47 @@
 package com.borneq.io;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.ImageIcon;
 
 import org.apache.commons.io.FilenameUtils;
 
-public class ArchiveTree {
+public class ArchiveTree implements ZipEntrySink {
 	private enum State {
 		SET, GET
 	}
 
+	private static final int PARALLEL_THRESHOLD = 1 << 15;
+	private static final int SORT_THRESHOLD = 1 << 13;
+
 	private State state;
 	private List<ArchiveItem> itemPaths;
 	ArchiveItem root;
-	private int itemIndex;
 	private String archiveName;
+	private ArchiveTreeListener listener;
+	private boolean lazy;
+	private PathTable index;
+	private static final AtomicLong versions = new AtomicLong();
+	// unique for tree and its content, stamp of cached listings
+	private volatile long version = versions.incrementAndGet();
+	// prefix of listing cache keys, unique so that trees of the same archive
+	// do not evict listings of each other; NUL never occurs in paths
+	private final String cacheKey;
+	private ArchiveItem dotsItem;
+	private ZipContent content;
+	// entry of outer archive holding this one, null for archive file
+	private ArchiveItem source;
+	// changed by insert or remove, no longer listing of archive
+	private volatile boolean modified;
 
 	static ImageIcon folderIcon;
 	static ImageIcon regularIcon;
@@ -28,18 +51,87 @@ public class ArchiveTree {
 		state = State.SET;
 		itemPaths = new ArrayList<ArchiveItem>();
 		this.archiveName = archiveName;
-		folderIcon = new ImageIcon(getClass().getResource("/folder16.png"));
-		regularIcon = new ImageIcon(getClass().getResource("/regular16.png"));
+		cacheKey = archiveName + '\0' + versions.incrementAndGet();
+		loadIcons();
+	}
+
+	/**
+	 * Tree of archive stored as entry of outer archive, data is its content.
+	 * Path of tree is outer archive path followed by entry path.
+	 */
+	public ArchiveTree(ArchiveItem source, ByteBuffer data) {
+		this(source.getOwner().getPath() + File.separatorChar + source.path);
+		this.source = source;
+		content = new ZipContent(data);
+	}
+
+	static void loadIcons() {
+		if (folderIcon == null) {
+			folderIcon = new ImageIcon(
+					ArchiveTree.class.getResource("/folder16.png"));
+			regularIcon = new ImageIcon(
+					ArchiveTree.class.getResource("/regular16.png"));
+		}
 	}
 
 	String getPath() {
 		return archiveName;
 	}
 
+	/**
+	 * Real directory containing archive file, of outermost one if nested.
+	 */
 	String getDir() {
+		if (source != null)
+			return source.getOwner().getDir();
 		return FilenameUtils.getFullPathNoEndSeparator(archiveName);
 	}
 
+	/**
+	 * Parent of root: directory of archive file, or outer archive directory
+	 * containing entry of nested archive.
+	 */
+	Item getParentDirectory() {
+		if (source != null)
+			return source.getParentDirectory();
+		return new RealItem(getDir());
+	}
+
+	/**
+	 * Entry of outer archive holding this one, null if tree is of archive
+	 * file.
+	 */
+	public ArchiveItem getSource() {
+		return source;
+	}
+
+	/**
+	 * Installs listener receiving organize statistics, null removes it.
+	 */
+	public void setListener(ArchiveTreeListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * In lazy mode organize only remembers entries, each directory is sorted
+	 * and linked when its items are requested first time. Must be set before
+	 * organize.
+	 */
+	public void setLazy(boolean lazy) {
+		this.lazy = lazy;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	/**
+	 * True after insert or remove changed organized tree.
+	 */
+	public boolean isModified() {
+		return modified;
+	}
+
 	public void addItem(ArchiveItem item) throws Exception {
 		if (state != State.SET)
 			throw new Exception("Must not be addItem after organize");
@@ -47,44 +139,513 @@ public class ArchiveTree {
 	}
 
 	/**
-	 * Main algorithm of archive walking assume that: - paths not ending with
-	 * separator - if exists dir\dir2 MUST exists dir1 alone
+	 * Before organize entry is collected by addItem. Organized tree gets it
+	 * inserted as by insert, but stays unmodified: streaming reader can fill
+	 * empty organized tree, which is browsed meanwhile.
+	 */
+	@Override
+	public void addEntry(String path, int flags, long length, long dosTime)
+			throws Exception {
+		ArchiveItem item = new ArchiveItem(this, path);
+		item.setFlags(flags);
+		item.setLength(length);
+		item.setLastModified(dosTime);
+		if (state == State.GET)
+			place(item);
+		else
+			addItem(item);
+	}
+
+	@Override
+	public void addEntry(String path, int flags, long length, long dosTime,
+			int method, long compressedSize, long headerOffset)
+			throws Exception {
+		ArchiveItem item = new ArchiveItem(this, path);
+		item.setFlags(flags);
+		item.setLength(length);
+		item.setLastModified(dosTime);
+		item.setLocation(method, compressedSize, headerOffset);
+		if (state == State.GET)
+			place(item);
+		else
+			addItem(item);
+	}
+
+	/**
+	 * Entry data access, archive is mapped on first use.
+	 */
+	synchronized ZipContent getContent() {
+		if (content == null)
+			content = new ZipContent(new File(archiveName));
+		return content;
+	}
+
+	/**
+	 * Compares paths so that separator sorts before any other character, thus
+	 * every directory is directly followed by its whole subtree.
 	 */
-	private void alg(int pos0, String prefix, ArchiveItem parent) {
-		List<ArchiveItem> list;
-		list = parent.childs;
-		while (itemIndex < itemPaths.size()) {
-			ArchiveItem item = itemPaths.get(itemIndex);
+	static int comparePaths(String path1, String path2) {
+		int len = Math.min(path1.length(), path2.length());
+		for (int i = 0; i < len; i++) {
+			char c1 = path1.charAt(i);
+			char c2 = path2.charAt(i);
+			if (c1 != c2) {
+				if (c1 == File.separatorChar)
+					return -1;
+				if (c2 == File.separatorChar)
+					return 1;
+				return c1 - c2;
+			}
+		}
+		return path1.length() - path2.length();
+	}
+
+	private static boolean isAncestor(String dir, String path) {
+		int len = dir.length();
+		return path.length() > len && path.charAt(len) == File.separatorChar
+				&& path.startsWith(dir);
+	}
+
+	/**
+	 * Compares path1 with path2.substring(0, len2), as comparePaths.
+	 */
+	private static int comparePaths(String path1, String path2, int len2) {
+		int len = Math.min(path1.length(), len2);
+		for (int i = 0; i < len; i++) {
+			char c1 = path1.charAt(i);
+			char c2 = path2.charAt(i);
+			if (c1 != c2) {
+				if (c1 == File.separatorChar)
+					return -1;
+				if (c2 == File.separatorChar)
+					return 1;
+				return c1 - c2;
+			}
+		}
+		return path1.length() - len2;
+	}
+
+	/**
+	 * Main algorithm of archive walking, assumes that items are sorted and
+	 * paths are not ending with separator. Directories missing in archive are
+	 * created on the fly. Single pass over range of items,
+	 * stack of open directories holds current item ancestors, deepest on top.
+	 * Range may start in the middle of list, then stack starts with ancestors
+	 * found before range; children of these are collected in outer list and
+	 * attached later, so ranges can be linked concurrently.
+	 */
+	private class LinkTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final List<ArchiveItem> items;
+		private final int from;
+		private final int to;
+		private final List<ArchiveItem> outer = new ArrayList<ArchiveItem>();
+
+		LinkTask(List<ArchiveItem> items, int from, int to) {
+			this.items = items;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Integer compute() {
+			return link();
+		}
+
+		int link() {
+			ArchiveItem[] stack = outerAncestors();
+			int base = stack.length;
+			int depth = base - 1;
+			int maxDepth = depth;
+			if (depth + 16 > stack.length)
+				stack = Arrays.copyOf(stack, depth + 16);
+			for (int i = from; i < to; i++) {
+				ArchiveItem item = items.get(i);
+				String path = item.path;
+				while (depth > 0 && !isAncestor(stack[depth].path, path))
+					depth--;
+				// slots above depth are reused by items of this range
+				if (depth < base)
+					base = depth + 1;
+				ArchiveItem parent = stack[depth];
+				int pos = path.indexOf(File.separatorChar,
+						depth > 0 ? parent.path.length() + 1 : 0);
+				while (pos >= 0) {
+					ArchiveItem dir = createImplicitDir(path.substring(0, pos));
+					add(dir, parent, depth < base);
+					if (++depth == stack.length)
+						stack = Arrays.copyOf(stack, depth * 2);
+					stack[depth] = dir;
+					parent = dir;
+					pos = path.indexOf(File.separatorChar, pos + 1);
+				}
+				add(item, parent, depth < base);
+				if (++depth == stack.length)
+					stack = Arrays.copyOf(stack, depth * 2);
+				stack[depth] = item;
+				if (depth > maxDepth)
+					maxDepth = depth;
+			}
+			return maxDepth;
+		}
+
+		private void add(ArchiveItem item, ArchiveItem parent,
+				boolean outerParent) {
 			item.parent = parent;
-			String path = item.getCanonicalPath();
-			if ((path.length() < pos0)
-					|| !path.substring(0, pos0).equals(prefix))
-				break;
-			int pos1 = path.indexOf(File.separator, pos0);
-			if (pos1 < 0) {
-				pos1 = path.length();
-				String sub0 = path.substring(pos0, pos1);
-				for (int i = 0; i < pos0; i++)
-					System.out.print(" ");
-				System.out.printf("%d %s\n", itemIndex, sub0);
-				list.add(item);
-				itemIndex++;
-			} else {
-				ArchiveItem priorItem = itemPaths.get(itemIndex - 1);
-				priorItem.childs = new ArrayList<ArchiveItem>();
-				alg(pos1 + 1, path.substring(0, pos1 + 1), priorItem);
+			if (outerParent)
+				outer.add(item);
+			else {
+				if (parent.childs == null)
+					parent.childs = new ArrayList<ArchiveItem>();
+				parent.childs.add(item);
+			}
+		}
+
+		/**
+		 * Root and existing ancestors of first item, each found by binary
+		 * search before range.
+		 */
+		private ArchiveItem[] outerAncestors() {
+			List<ArchiveItem> ancestors = new ArrayList<ArchiveItem>();
+			ancestors.add(root);
+			if (from > 0 && from < to) {
+				String path = items.get(from).path;
+				int pos = path.indexOf(File.separatorChar);
+				while (pos >= 0) {
+					ArchiveItem ancestor = findLast(path, pos);
+					if (ancestor != null)
+						ancestors.add(ancestor);
+					pos = path.indexOf(File.separatorChar, pos + 1);
+				}
+			}
+			return ancestors.toArray(new ArchiveItem[ancestors.size()]);
+		}
+
+		private ArchiveItem findLast(String path, int len) {
+			int low = 0;
+			int high = from;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (comparePaths(items.get(mid).path, path, len) <= 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			if (low > 0 && items.get(low - 1).path.length() == len
+					&& comparePaths(items.get(low - 1).path, path, len) == 0)
+				return items.get(low - 1);
+			return null;
+		}
+
+		/**
+		 * Attaches outer children. Implicit directory created both by this and
+		 * by previous range is merged into the one attached first; child list
+		 * of root may be empty when its first child is attached.
+		 */
+		void attachOuter() {
+			for (ArchiveItem item : outer) {
+				ArchiveItem parent = (ArchiveItem) item.parent;
+				if (parent.childs == null)
+					parent.childs = new ArrayList<ArchiveItem>();
+				else if (item.implicit && !parent.childs.isEmpty()) {
+					ArchiveItem last = parent.childs
+							.get(parent.childs.size() - 1);
+					if (last.implicit && last.path.equals(item.path)) {
+						merge(last, item);
+						continue;
+					}
+				}
+				parent.childs.add(item);
+			}
+		}
+
+		private void merge(ArchiveItem dir, ArchiveItem dup) {
+			while (dup.childs != null) {
+				ArchiveItem first = dup.childs.get(0);
+				ArchiveItem next = null;
+				if (dir.childs == null)
+					dir.childs = new ArrayList<ArchiveItem>();
+				else {
+					ArchiveItem last = dir.childs.get(dir.childs.size() - 1);
+					if (first.implicit && last.implicit
+							&& last.path.equals(first.path))
+						next = last;
+				}
+				for (int i = next != null ? 1 : 0; i < dup.childs.size(); i++) {
+					ArchiveItem child = dup.childs.get(i);
+					child.parent = dir;
+					dir.childs.add(child);
+				}
+				if (next == null)
+					return;
+				dir = next;
+				dup = first;
 			}
 		}
 	}
 
+	/**
+	 * Directory missing in archive but present in paths of its entries.
+	 */
+	private ArchiveItem createImplicitDir(String path) {
+		ArchiveItem dir = new ArchiveItem(this, path);
+		dir.setFlags(0);
+		dir.implicit = true;
+		return dir;
+	}
+
+	private static class SortTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ArchiveItem[] items;
+		private final ArchiveItem[] tmp;
+		private final int from;
+		private final int to;
+
+		SortTask(ArchiveItem[] items, ArchiveItem[] tmp, int from, int to) {
+			this.items = items;
+			this.tmp = tmp;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SORT_THRESHOLD) {
+				Arrays.sort(items, from, to);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new SortTask(items, tmp, from, mid), new SortTask(items,
+					tmp, mid, to));
+			if (items[mid - 1].compareTo(items[mid]) <= 0)
+				return;
+			System.arraycopy(items, from, tmp, from, to - from);
+			int i = from;
+			int j = mid;
+			for (int k = from; k < to; k++) {
+				if (j >= to || (i < mid && tmp[i].compareTo(tmp[j]) <= 0))
+					items[k] = tmp[i++];
+				else
+					items[k] = tmp[j++];
+			}
+		}
+	}
+
+	private void parallelSort(ForkJoinPool pool) {
+		ArchiveItem[] items = itemPaths.toArray(new ArchiveItem[itemPaths
+				.size()]);
+		pool.invoke(new SortTask(items, new ArchiveItem[items.length], 0,
+				items.length));
+		for (int i = 0; i < items.length; i++)
+			itemPaths.set(i, items[i]);
+	}
+
+	private int parallelLink(ForkJoinPool pool) {
+		int size = itemPaths.size();
+		int chunks = pool.getParallelism() * 4;
+		int chunkSize = (size + chunks - 1) / chunks;
+		List<LinkTask> tasks = new ArrayList<LinkTask>();
+		for (int from = 0; from < size; from += chunkSize) {
+			LinkTask task = new LinkTask(itemPaths, from, Math.min(size, from
+					+ chunkSize));
+			pool.execute(task);
+			tasks.add(task);
+		}
+		int maxDepth = 0;
+		for (LinkTask task : tasks)
+			maxDepth = Math.max(maxDepth, task.join());
+		for (LinkTask task : tasks)
+			task.attachOuter();
+		return maxDepth;
+	}
+
+	private void collectStats(OrganizeStats stats) {
+		stats.entries = itemPaths.size();
+		stats.maxChildren = root.childs.size();
+		List<ArchiveItem> stack = new ArrayList<ArchiveItem>(root.childs);
+		while (!stack.isEmpty()) {
+			ArchiveItem item = stack.remove(stack.size() - 1);
+			if (item.implicit)
+				stats.implicitDirectories++;
+			if (item.childs != null) {
+				stats.directories++;
+				if (item.childs.size() > stats.maxChildren)
+					stats.maxChildren = item.childs.size();
+				stack.addAll(item.childs);
+			}
+		}
+	}
+
+	/**
+	 * Distributes pending descendants of dir: direct children go to childs,
+	 * deeper ones to pending list of child directory containing them.
+	 */
+	private synchronized void expand(ArchiveItem dir) {
+		List<ArchiveItem> pending = dir.pending;
+		if (pending == null)
+			return;
+		int pos0 = dir == root ? 0 : dir.path.length() + 1;
+		List<ArchiveItem> list = new ArrayList<ArchiveItem>();
+		PathTable table = new PathTable(16);
+		boolean deeper = false;
+		for (ArchiveItem item : pending) {
+			if (item.path.indexOf(File.separatorChar, pos0) < 0) {
+				item.parent = dir;
+				list.add(item);
+				table.put(item);
+			} else
+				deeper = true;
+		}
+		if (deeper)
+			for (ArchiveItem item : pending) {
+				String path = item.path;
+				int pos1 = path.indexOf(File.separatorChar, pos0);
+				if (pos1 < 0)
+					continue;
+				ArchiveItem sub = table.get(path, pos1);
+				if (sub == null) {
+					sub = createImplicitDir(path.substring(0, pos1));
+					sub.parent = dir;
+					list.add(sub);
+					table.put(sub);
+				}
+				if (sub.pending == null)
+					sub.pending = new ArrayList<ArchiveItem>();
+				sub.pending.add(item);
+			}
+		Collections.sort(list);
+		dir.childs = list;
+		dir.pending = null;
+	}
+
 	public void organize() throws Exception {
+		organize(null);
+	}
+
+	/**
+	 * As organize(), but archives larger than PARALLEL_THRESHOLD are sorted
+	 * and linked by tasks of pool. Lazy tree ignores pool.
+	 */
+	public void organize(ForkJoinPool pool) throws Exception {
 		if (state != State.SET)
 			throw new Exception("Must not call organize twice");
-		Collections.sort(itemPaths);
-		itemIndex = 0;
+		if (lazy) {
+			root = new ArchiveItem(this, null);
+			root.pending = itemPaths;
+			state = State.GET;
+			return;
+		}
+		ArchiveTreeListener listener = this.listener;
+		boolean parallel = pool != null
+				&& itemPaths.size() >= PARALLEL_THRESHOLD;
+		long start = listener != null ? System.nanoTime() : 0;
+		if (parallel)
+			parallelSort(pool);
+		else
+			Collections.sort(itemPaths);
+		long sorted = listener != null ? System.nanoTime() : 0;
 		root = new ArchiveItem(this, null);
 		root.childs = new ArrayList<ArchiveItem>();
-		alg(0, "", root);
+		int maxDepth;
+		if (parallel)
+			maxDepth = parallelLink(pool);
+		else {
+			LinkTask task = new LinkTask(itemPaths, 0, itemPaths.size());
+			maxDepth = task.link();
+			task.attachOuter();
+		}
+		buildIndex();
+		state = State.GET;
+		if (listener != null) {
+			OrganizeStats stats = new OrganizeStats();
+			stats.sortNanos = sorted - start;
+			stats.linkNanos = System.nanoTime() - sorted;
+			stats.maxDepth = maxDepth;
+			collectStats(stats);
+			listener.organized(this, stats);
+		}
+	}
+
+	private void buildIndex() {
+		List<ArchiveItem> order = new ArrayList<ArchiveItem>(itemPaths.size());
+		List<ArchiveItem> stack = new ArrayList<ArchiveItem>(root.childs);
+		while (!stack.isEmpty()) {
+			ArchiveItem item = stack.remove(stack.size() - 1);
+			order.add(item);
+			if (item.childs != null)
+				stack.addAll(item.childs);
+		}
+		buildIndex(order);
+	}
+
+	/**
+	 * Fills path index and computes directory aggregates from all items in
+	 * preorder: they are added to parents in reverse, so each directory is
+	 * complete before it is added to its parent.
+	 */
+	private void buildIndex(List<ArchiveItem> order) {
+		index = new PathTable(order.size());
+		for (ArchiveItem item : order)
+			index.put(item);
+		aggregate(order);
+		root.aggregated = true;
+	}
+
+	private static void aggregate(List<ArchiveItem> order) {
+		for (int i = order.size() - 1; i >= 0; i--) {
+			ArchiveItem item = order.get(i);
+			item.aggregated = true;
+			((ArchiveItem) item.parent).aggregate(item);
+		}
+	}
+
+	/**
+	 * Computes aggregates of dir in lazy tree, its whole subtree is expanded.
+	 * Eager tree has them computed by organize.
+	 */
+	synchronized void aggregate(ArchiveItem dir) {
+		if (dir.aggregated || state != State.GET)
+			return;
+		List<ArchiveItem> order = new ArrayList<ArchiveItem>();
+		List<ArchiveItem> stack = new ArrayList<ArchiveItem>();
+		expand(dir);
+		if (dir.childs != null)
+			stack.addAll(dir.childs);
+		while (!stack.isEmpty()) {
+			ArchiveItem item = stack.remove(stack.size() - 1);
+			order.add(item);
+			if (item.aggregated)
+				continue;
+			expand(item);
+			if (item.childs != null)
+				stack.addAll(item.childs);
+		}
+		aggregate(order);
+		dir.aggregated = true;
+	}
+
+	/**
+	 * Makes organized tree of items in preorder, parents[i] is index of
+	 * parent of items[i] or -1 for root. Used by ArchiveIndex.
+	 */
+	void restore(ArchiveItem[] items, int[] parents) throws Exception {
+		if (state != State.SET)
+			throw new Exception("Must not call restore after organize");
+		if (lazy)
+			throw new Exception("Lazy tree can not be restored");
+		root = new ArchiveItem(this, null);
+		root.childs = new ArrayList<ArchiveItem>();
+		for (int i = 0; i < items.length; i++) {
+			ArchiveItem parent = parents[i] < 0 ? root : items[parents[i]];
+			if (parent.childs == null)
+				parent.childs = new ArrayList<ArchiveItem>();
+			parent.childs.add(items[i]);
+			items[i].parent = parent;
+		}
+		itemPaths = Arrays.asList(items);
+		buildIndex(itemPaths);
 		state = State.GET;
 	}
 
@@ -92,17 +653,299 @@ public class ArchiveTree {
 		return root;
 	}
 
+	/**
+	 * Child of dir with path equal to path.substring(0, end), binary search
+	 * in sorted child list.
+	 */
+	private static ArchiveItem findChild(ArchiveItem dir, String path, int end) {
+		List<ArchiveItem> list = dir.childs;
+		if (list == null)
+			return null;
+		int low = 0;
+		int high = list.size() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = comparePaths(list.get(mid).path, path, end);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return list.get(mid);
+		}
+		return null;
+	}
+
+	private static String normalize(String path) {
+		if (File.separatorChar != '/')
+			path = path.replace('/', File.separatorChar);
+		int from = 0;
+		int to = path.length();
+		while (from < to && path.charAt(from) == File.separatorChar)
+			from++;
+		while (to > from && path.charAt(to - 1) == File.separatorChar)
+			to--;
+		if (from == 0 && to == path.length())
+			return path;
+		return path.substring(from, to);
+	}
+
+	/**
+	 * Finds item by path relative to archive root, both '/' and platform
+	 * separator are accepted. Empty path gives root, null if not found.
+	 */
+	public ArchiveItem find(String path) throws Exception {
+		if (state != State.GET)
+			throw new Exception("find must be after organize");
+		path = normalize(path);
+		if (path.isEmpty())
+			return root;
+		if (index != null)
+			return index.get(path);
+		// lazy tree: walk components, expanding directories on the way
+		ArchiveItem dir = root;
+		int pos = 0;
+		while (true) {
+			if (dir.pending != null)
+				expand(dir);
+			int end = path.indexOf(File.separatorChar, pos);
+			if (end < 0)
+				end = path.length();
+			ArchiveItem child = findChild(dir, path, end);
+			if (child == null || end == path.length())
+				return child;
+			dir = child;
+			pos = end + 1;
+		}
+	}
+
+	/**
+	 * Finds item by path relative to dir, "." and ".." components are
+	 * resolved, leading separator starts from archive root. Null if not found
+	 * or path leads out of archive.
+	 */
+	public ArchiveItem resolve(Item dir, String relative) throws Exception {
+		if (File.separatorChar != '/')
+			relative = relative.replace('/', File.separatorChar);
+		StringBuilder sb = new StringBuilder();
+		if (dir != root && !relative.startsWith(File.separator))
+			sb.append(((ArchiveItem) dir).path);
+		int len = relative.length();
+		int pos = 0;
+		while (pos <= len) {
+			int end = relative.indexOf(File.separatorChar, pos);
+			if (end < 0)
+				end = len;
+			int compLen = end - pos;
+			if (compLen == 2 && relative.startsWith("..", pos)) {
+				if (sb.length() == 0)
+					return null;
+				int last = sb.lastIndexOf(File.separator);
+				sb.setLength(last < 0 ? 0 : last);
+			} else if (compLen > 0
+					&& !(compLen == 1 && relative.charAt(pos) == '.')) {
+				if (sb.length() > 0)
+					sb.append(File.separatorChar);
+				sb.append(relative, pos, end);
+			}
+			pos = end + 1;
+		}
+		return find(sb.toString());
+	}
+
+	/**
+	 * Inserts entry into organized tree, see insert(ArchiveItem).
+	 */
+	public ArchiveItem insert(String path, int flags, long length,
+			long dosTime) throws Exception {
+		ArchiveItem item = new ArchiveItem(this, path);
+		item.setFlags(flags);
+		item.setLength(length);
+		item.setLastModified(dosTime);
+		return insert(item);
+	}
+
+	/**
+	 * Inserts item into organized tree, missing directories on its path are
+	 * created as implicit. Existing file is replaced, existing directory only
+	 * takes time of item and stops being implicit. Cost is depth of item
+	 * plus binary search among siblings on each level; aggregates of
+	 * ancestors are updated and cached listings of tree invalidated. Returns
+	 * item which is in tree.
+	 */
+	public synchronized ArchiveItem insert(ArchiveItem item) throws Exception {
+		ArchiveItem result = place(item);
+		modified = true;
+		return result;
+	}
+
+	private synchronized ArchiveItem place(ArchiveItem item) throws Exception {
+		if (state != State.GET)
+			throw new Exception("insert must be after organize");
+		if (item.getOwner() != this)
+			throw new Exception("Item of other tree");
+		String path = normalize(item.path);
+		if (path.isEmpty())
+			throw new Exception("Empty path");
+		item.path = path;
+		ArchiveItem dir = root;
+		List<ArchiveItem> created = new ArrayList<ArchiveItem>();
+		int pos = 0;
+		while (true) {
+			if (dir.pending != null)
+				expand(dir);
+			int end = path.indexOf(File.separatorChar, pos);
+			if (end < 0)
+				break;
+			ArchiveItem child = findChild(dir, path, end);
+			if (child == null) {
+				child = createImplicitDir(path.substring(0, end));
+				link(dir, child);
+				created.add(child);
+			} else if (!child.isDirectory())
+				throw new Exception("Not a directory: " + child.path);
+			dir = child;
+			pos = end + 1;
+		}
+		ArchiveItem old = findChild(dir, path, path.length());
+		if (old != null) {
+			if (old.isDirectory() != item.isDirectory())
+				throw new Exception("Exists with other type: " + path);
+			if (old.isDirectory()) {
+				old.implicit = false;
+				old.setLastModified(item.getDosTime());
+				for (ArchiveItem a = dir; a != null && a.aggregated;
+						a = (ArchiveItem) a.parent)
+					a.recomputeNewest();
+				version = versions.incrementAndGet();
+				return old;
+			}
+			unlink(old);
+		}
+		link(dir, item);
+		// new items are summed deepest first, then added to old ancestors
+		item.aggregated = true;
+		ArchiveItem top = item;
+		for (int i = created.size() - 1; i >= 0; i--) {
+			ArchiveItem newDir = created.get(i);
+			newDir.aggregate(top);
+			newDir.aggregated = true;
+			top = newDir;
+		}
+		for (ArchiveItem a = (ArchiveItem) top.parent; a != null
+				&& a.aggregated; a = (ArchiveItem) a.parent)
+			a.aggregate(top);
+		version = versions.incrementAndGet();
+		return item;
+	}
+
+	/**
+	 * Removes item with its subtree from organized tree, implicit directories
+	 * left empty are removed too. Returns removed item, null if not found.
+	 */
+	public synchronized ArchiveItem remove(String path) throws Exception {
+		ArchiveItem item = find(path);
+		if (item == null)
+			return null;
+		if (item == root)
+			throw new Exception("Root can not be removed");
+		ArchiveItem top = item;
+		while (top.parent != root && ((ArchiveItem) top.parent).implicit
+				&& ((ArchiveItem) top.parent).childs.size() == 1)
+			top = (ArchiveItem) top.parent;
+		unlink(top);
+		modified = true;
+		version = versions.incrementAndGet();
+		return item;
+	}
+
+	private void link(ArchiveItem dir, ArchiveItem item) {
+		if (dir.childs == null)
+			dir.childs = new ArrayList<ArchiveItem>();
+		int i = Collections.binarySearch(dir.childs, item);
+		dir.childs.add(-i - 1, item);
+		item.parent = dir;
+		if (index != null)
+			index.put(item);
+	}
+
+	/**
+	 * Unlinks item from parent, index and aggregates of ancestors. Aggregated
+	 * directory has all descendants aggregated, so walk up stops at first
+	 * one which is not.
+	 */
+	private void unlink(ArchiveItem item) {
+		ArchiveItem dir = (ArchiveItem) item.parent;
+		dir.childs.remove(Collections.binarySearch(dir.childs, item));
+		if (index != null) {
+			List<ArchiveItem> stack = new ArrayList<ArchiveItem>();
+			stack.add(item);
+			while (!stack.isEmpty()) {
+				ArchiveItem removed = stack.remove(stack.size() - 1);
+				index.remove(removed.path);
+				if (removed.childs != null)
+					stack.addAll(removed.childs);
+			}
+		}
+		int newest = item.getDosTime();
+		if (item.isDirectory()
+				&& (item.getNewestDosTime() & 0xFFFFFFFFL) > (newest & 0xFFFFFFFFL))
+			newest = item.getNewestDosTime();
+		for (ArchiveItem a = dir; a != null && a.aggregated;
+				a = (ArchiveItem) a.parent) {
+			a.subtract(item);
+			// newest can change only if removed subtree held it
+			if (a.getNewestDosTime() == newest)
+				a.recomputeNewest();
+		}
+	}
+
+	/**
+	 * Sorted children of dir, null if none. Not copied and not cached, must
+	 * not be modified.
+	 */
+	List<ArchiveItem> getChildren(ArchiveItem dir) throws Exception {
+		if (state != State.GET)
+			throw new Exception("getChildren must be after organize");
+		if (lazy)
+			expand(dir);
+		return dir.childs;
+	}
+
+	/**
+	 * Releases tree resources: listings of tree are removed from
+	 * ListingCache, so they do not keep tree reachable, and archive mapping
+	 * is dropped. Tree remains usable, both are recreated on demand.
+	 */
+	public void close() {
+		ListingCache.getDefault().invalidateAll(cacheKey);
+		synchronized (this) {
+			if (source == null)
+				content = null;
+		}
+	}
+
+	/**
+	 * Listing is kept in ListingCache, returned list is unmodifiable.
+	 */
 	public List<Item> getItems(ArchiveItem dir, boolean twoDots)
 			throws Exception {
 		if (state != State.GET)
 			throw new Exception("getFiles must be after organize");
-		List<Item> items;
+		if (dotsItem == null)
+			dotsItem = new ArchiveItem(this, "..");
+		ListingCache cache = ListingCache.getDefault();
+		String key = dir == root ? cacheKey : cacheKey + File.separatorChar
+				+ dir.path;
+		List<Item> items = cache.get(key, version, twoDots, dotsItem);
+		if (items != null)
+			return items;
+		if (dir.pending != null)
+			expand(dir);
 		if (dir.childs == null)
 			items = new ArrayList<Item>();
 		else
 			items = new ArrayList<Item>(dir.childs);
-		if (twoDots)
-			items.add(0, new ArchiveItem(this, ".."));
-		return items;
+		return cache.put(key, version, items, twoDots, dotsItem);
 	}
 }
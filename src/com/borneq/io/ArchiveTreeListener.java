@@ -0,0 +1,9 @@
+package com.borneq.io;
+
+/**
+ * Optional hook notified by ArchiveTree, see
+ * {@link ArchiveTree#setListener(ArchiveTreeListener)}.
+ */
+public interface ArchiveTreeListener {
+	void organized(ArchiveTree tree, OrganizeStats stats);
+}
@@ -0,0 +1,125 @@
+package com.borneq.io;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import javax.swing.Icon;
+
+import com.borneq.util.TimeUtil;
+
+/**
+ * Lightweight view of single CompactArchiveTree entry.
+ */
+public class CompactArchiveItem implements Item {
+	private CompactArchiveTree owner;
+	private int index;
+
+	CompactArchiveItem(CompactArchiveTree owner, int index) {
+		super();
+		this.owner = owner;
+		this.index = index;
+	}
+
+	@Override
+	public int compareTo(Item o) {
+		// entries are numbered in path order
+		return Integer.compare(index, ((CompactArchiveItem) o).index);
+	}
+
+	@Override
+	public String getCanonicalPath() {
+		if (index == CompactArchiveTree.ROOT)
+			return owner.getPath();
+		else if (index == CompactArchiveTree.TWO_DOTS)
+			return "..";
+		else
+			return owner.getPath(index);
+	}
+
+	@Override
+	public String getRealDir() {
+		return owner.getDir();
+	}
+
+	@Override
+	public Icon getIcon() {
+		if (isDirectory())
+			return ArchiveTree.folderIcon;
+		else
+			return ArchiveTree.regularIcon;
+	}
+
+	@Override
+	public List<Item> getItems() {
+		return getItems(true);
+	}
+
+	@Override
+	public List<Item> getItems(boolean twoDots) {
+		try {
+			return owner.getItems(index, twoDots);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public Future<?> listItems(ExecutorService executor, int batchSize,
+			ItemListListener listener) {
+		return new ItemLister(this, batchSize, listener) {
+			@Override
+			protected void list() throws Exception {
+				for (Item item : owner.getItems(index, false))
+					add(item);
+			}
+		}.submit(executor);
+	}
+
+	@Override
+	public String getName() {
+		if (index == CompactArchiveTree.ROOT)
+			return "";
+		else if (index == CompactArchiveTree.TWO_DOTS)
+			return "..";
+		else
+			return owner.getName(index);
+	}
+
+	@Override
+	public Item getParentDirectory() {
+		if (index == CompactArchiveTree.ROOT)
+			return new RealItem(owner.getDir());
+		else if (index == CompactArchiveTree.TWO_DOTS)
+			return null;
+		else
+			return new CompactArchiveItem(owner, owner.getParent(index));
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return index < 0 || owner.isDirectory(index);
+	}
+
+	@Override
+	public boolean isFileSystemRoot() {
+		return false;
+	}
+
+	@Override
+	public long lastModified() {
+		// view is created per access, so decoded time is not kept; as in
+		// ArchiveItem only directories missing in archive have no time
+		if (index < 0 || owner.isImplicit(index))
+			return 0;
+		return TimeUtil.dosToJavaTime(owner.getDosTime(index));
+	}
+
+	@Override
+	public long length() {
+		if (index < 0)
+			return 0;
+		return owner.getLength(index);
+	}
+}
@@ -0,0 +1,301 @@
+package com.borneq.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Alternative to ArchiveTree for very large archives. Entries are kept in
+ * parallel primitive arrays instead of one ArchiveItem per entry, Item views
+ * are created only by getItems. After organize entries are numbered in sorted
+ * (depth first) order and only names relative to parent stay in the char
+ * pool, full paths are rebuilt on demand. Directories missing in archive are
+ * created by organize.
+ */
+public class CompactArchiveTree implements ArchiveSink {
+	private enum State {
+		SET, GET
+	}
+
+	static final int ROOT = -1;
+	static final int TWO_DOTS = -2;
+
+	private State state;
+	private String archiveName;
+	private int count;
+	private char[] pool;
+	private int poolSize;
+	// SET state: full paths in pool
+	private int[] pathStart;
+	private int[] pathLen;
+	// GET state: names relative to parent in pool
+	private int[] nameStart;
+	private int[] nameLen;
+	private int[] parent;
+	// children of entry i are children[childStart[i + 1]..childStart[i + 2]),
+	// root children start at childStart[0]
+	private int[] childStart;
+	private int[] children;
+	private long[] length;
+	private int[] dosTime;
+	private char[] flags;
+	// GET state: directories missing in archive, they have no time
+	private BitSet implicit;
+
+	public CompactArchiveTree(String archiveName) {
+		this(archiveName, 1024);
+	}
+
+	public CompactArchiveTree(String archiveName, int expectedEntries) {
+		super();
+		state = State.SET;
+		this.archiveName = archiveName;
+		int capacity = Math.max(expectedEntries, 16);
+		pool = new char[capacity * 16];
+		pathStart = new int[capacity];
+		pathLen = new int[capacity];
+		length = new long[capacity];
+		dosTime = new int[capacity];
+		flags = new char[capacity];
+		ArchiveTree.loadIcons();
+	}
+
+	String getPath() {
+		return archiveName;
+	}
+
+	String getDir() {
+		return FilenameUtils.getFullPathNoEndSeparator(archiveName);
+	}
+
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public void addEntry(String path, int flags, long length, long dosTime)
+			throws Exception {
+		if (state != State.SET)
+			throw new Exception("Must not be addEntry after organize");
+		if (count == pathStart.length) {
+			int capacity = count * 2;
+			pathStart = Arrays.copyOf(pathStart, capacity);
+			pathLen = Arrays.copyOf(pathLen, capacity);
+			this.length = Arrays.copyOf(this.length, capacity);
+			this.dosTime = Arrays.copyOf(this.dosTime, capacity);
+			this.flags = Arrays.copyOf(this.flags, capacity);
+		}
+		int len = path.length();
+		if (poolSize + len > pool.length)
+			pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + len));
+		path.getChars(0, len, pool, poolSize);
+		pathStart[count] = poolSize;
+		pathLen[count] = len;
+		poolSize += len;
+		this.length[count] = length;
+		this.dosTime[count] = (int) dosTime;
+		this.flags[count] = (char) flags;
+		count++;
+	}
+
+	/**
+	 * Same order as ArchiveTree.comparePaths, on pool regions.
+	 */
+	private int compare(int index1, int index2) {
+		int start1 = pathStart[index1];
+		int start2 = pathStart[index2];
+		int len1 = pathLen[index1];
+		int len2 = pathLen[index2];
+		int len = Math.min(len1, len2);
+		for (int i = 0; i < len; i++) {
+			char c1 = pool[start1 + i];
+			char c2 = pool[start2 + i];
+			if (c1 != c2) {
+				if (c1 == File.separatorChar)
+					return -1;
+				if (c2 == File.separatorChar)
+					return 1;
+				return c1 - c2;
+			}
+		}
+		return len1 - len2;
+	}
+
+	/**
+	 * Whether pool region (start1, len1) is directory containing region
+	 * (start2, len2).
+	 */
+	private boolean isAncestor(int start1, int len1, int start2, int len2) {
+		if (len2 <= len1 || pool[start2 + len1] != File.separatorChar)
+			return false;
+		for (int i = 0; i < len1; i++)
+			if (pool[start1 + i] != pool[start2 + i])
+				return false;
+		return true;
+	}
+
+	public void organize() throws Exception {
+		if (state != State.SET)
+			throw new Exception("Must not call organize twice");
+		int[] order = new int[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		new IndexSort() {
+			@Override
+			int compare(int index1, int index2) {
+				return CompactArchiveTree.this.compare(index1, index2);
+			}
+		}.sort(order);
+
+		// link in sorted order, same single pass as ArchiveTree; directories
+		// missing in archive are inserted with source -1, their path is prefix
+		// of the path of first descendant
+		int capacity = count + count / 8 + 16;
+		int[] linkStart = new int[capacity];
+		int[] linkLen = new int[capacity];
+		int[] linkParent = new int[capacity];
+		int[] linkSource = new int[capacity];
+		int linked = 0;
+		int[] stack = new int[16];
+		int depth = 0;
+		for (int k = 0; k < count; k++) {
+			int index = order[k];
+			int start = pathStart[index];
+			int len = pathLen[index];
+			while (depth > 0
+					&& !isAncestor(linkStart[stack[depth]],
+							linkLen[stack[depth]], start, len))
+				depth--;
+			int parentLink = depth > 0 ? stack[depth] : ROOT;
+			int pos = parentLink == ROOT ? 0 : linkLen[parentLink] + 1;
+			for (; pos <= len; pos++) {
+				if (pos < len && pool[start + pos] != File.separatorChar)
+					continue;
+				if (linked == linkStart.length) {
+					capacity = linked * 2;
+					linkStart = Arrays.copyOf(linkStart, capacity);
+					linkLen = Arrays.copyOf(linkLen, capacity);
+					linkParent = Arrays.copyOf(linkParent, capacity);
+					linkSource = Arrays.copyOf(linkSource, capacity);
+				}
+				linkStart[linked] = start;
+				linkLen[linked] = pos;
+				linkParent[linked] = parentLink;
+				linkSource[linked] = pos == len ? index : -1;
+				if (++depth == stack.length)
+					stack = Arrays.copyOf(stack, depth * 2);
+				stack[depth] = linked;
+				parentLink = linked++;
+			}
+		}
+
+		// renumber entries to sorted order and keep only relative names
+		char[] names = new char[poolSize];
+		int namesSize = 0;
+		nameStart = new int[linked];
+		nameLen = new int[linked];
+		long[] sortedLength = new long[linked];
+		int[] sortedDosTime = new int[linked];
+		char[] sortedFlags = new char[linked];
+		implicit = new BitSet(linked);
+		for (int k = 0; k < linked; k++) {
+			int skip = linkParent[k] == ROOT ? 0 : linkLen[linkParent[k]] + 1;
+			int len = linkLen[k] - skip;
+			System.arraycopy(pool, linkStart[k] + skip, names, namesSize, len);
+			nameStart[k] = namesSize;
+			nameLen[k] = len;
+			namesSize += len;
+			int index = linkSource[k];
+			if (index >= 0) {
+				sortedLength[k] = length[index];
+				sortedDosTime[k] = dosTime[index];
+				sortedFlags[k] = flags[index];
+			} else
+				implicit.set(k);
+		}
+		pool = Arrays.copyOf(names, namesSize);
+		poolSize = namesSize;
+		pathStart = null;
+		pathLen = null;
+		parent = Arrays.copyOf(linkParent, linked);
+		length = sortedLength;
+		dosTime = sortedDosTime;
+		flags = sortedFlags;
+		count = linked;
+
+		childStart = new int[count + 2];
+		for (int k = 0; k < count; k++)
+			childStart[parent[k] + 2]++;
+		for (int i = 1; i < childStart.length; i++)
+			childStart[i] += childStart[i - 1];
+		children = new int[count];
+		int[] fill = Arrays.copyOf(childStart, count + 1);
+		for (int k = 0; k < count; k++)
+			children[fill[parent[k] + 1]++] = k;
+		state = State.GET;
+	}
+
+	public Item getRoot() {
+		return new CompactArchiveItem(this, ROOT);
+	}
+
+	List<Item> getItems(int index, boolean twoDots) throws Exception {
+		if (state != State.GET)
+			throw new Exception("getFiles must be after organize");
+		int from = 0;
+		int to = 0;
+		if (index != TWO_DOTS) {
+			from = childStart[index + 1];
+			to = childStart[index + 2];
+		}
+		List<Item> items = new ArrayList<Item>(to - from + 1);
+		if (twoDots)
+			items.add(new CompactArchiveItem(this, TWO_DOTS));
+		for (int i = from; i < to; i++)
+			items.add(new CompactArchiveItem(this, children[i]));
+		return items;
+	}
+
+	int getParent(int index) {
+		return parent[index];
+	}
+
+	String getPath(int index) {
+		int len = -1;
+		for (int i = index; i != ROOT; i = parent[i])
+			len += nameLen[i] + 1;
+		char[] buf = new char[len];
+		int pos = len;
+		for (int i = index; i != ROOT; i = parent[i]) {
+			pos -= nameLen[i];
+			System.arraycopy(pool, nameStart[i], buf, pos, nameLen[i]);
+			if (pos > 0)
+				buf[--pos] = File.separatorChar;
+		}
+		return new String(buf);
+	}
+
+	String getName(int index) {
+		return new String(pool, nameStart[index], nameLen[index]);
+	}
+
+	boolean isDirectory(int index) {
+		return (flags[index] & 0x8000) == 0;
+	}
+
+	long getLength(int index) {
+		return length[index];
+	}
+
+	boolean isImplicit(int index) {
+		return implicit.get(index);
+	}
+
+	long getDosTime(int index) {
+		return dosTime[index] & 0xFFFFFFFFL;
+	}
+}
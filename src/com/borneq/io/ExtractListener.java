@@ -0,0 +1,10 @@
+package com.borneq.io;
+
+/**
+ * Progress of ArchiveExtractor, called from worker threads at most every
+ * progress interval. Throughput is average since extraction start.
+ */
+public interface ExtractListener {
+	void extractProgress(long files, long bytes, long totalFiles,
+			long totalBytes, long bytesPerSecond);
+}
@@ -0,0 +1,66 @@
+package com.borneq.io;
+
+/**
+ * Outcome of ArchiveExtractor.extract.
+ */
+public class ExtractResult {
+	long files;
+	long directories;
+	long bytes;
+	long errors;
+	long nanos;
+	Exception firstError;
+
+	void error(Exception e) {
+		errors++;
+		if (firstError == null)
+			firstError = e;
+	}
+
+	void add(ExtractResult other) {
+		files += other.files;
+		directories += other.directories;
+		bytes += other.bytes;
+		errors += other.errors;
+		if (firstError == null)
+			firstError = other.firstError;
+	}
+
+	public long getFiles() {
+		return files;
+	}
+
+	public long getDirectories() {
+		return directories;
+	}
+
+	/** Total length of extracted files */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/** Number of entries which could not be extracted */
+	public long getErrors() {
+		return errors;
+	}
+
+	/** First failure, null if none */
+	public Exception getFirstError() {
+		return firstError;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public long getBytesPerSecond() {
+		return nanos > 0 ? (long) (bytes * 1e9 / nanos) : 0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"files=%d directories=%d bytes=%d errors=%d ms=%d", files,
+				directories, bytes, errors, nanos / 1000000);
+	}
+}
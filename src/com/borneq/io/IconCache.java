@@ -0,0 +1,112 @@
+package com.borneq.io;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.swing.Icon;
+import javax.swing.filechooser.FileSystemView;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Bounded LRU cache of system icons. Files share icon by lower case
+ * extension, directories share one icon. File system roots and files which
+ * carry own icon (executables, shortcuts, icons) are cached by path.
+ */
+public class IconCache {
+	private static final String DIRECTORY_KEY = "\0dir";
+	private static final Set<String> OWN_ICON_EXTENSIONS = new HashSet<String>(
+			Arrays.asList("exe", "lnk", "ico", "cur", "ani", "scr", "com",
+					"url", "msc", "cpl"));
+
+	private static IconCache defaultCache = new IconCache(1024);
+
+	private final FileSystemView fileSystemView = FileSystemView
+			.getFileSystemView();
+	private final Map<String, Icon> icons;
+	private int maxSize;
+	private long hits;
+	private long misses;
+
+	public IconCache(int maxSize) {
+		this.maxSize = maxSize;
+		icons = new LinkedHashMap<String, Icon>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+				return size() > IconCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Cache used by RealItem.getIcon
+	 */
+	public static IconCache getDefault() {
+		return defaultCache;
+	}
+
+	private static String getKey(File file, boolean isDirectory,
+			boolean isRoot) {
+		if (isRoot)
+			return file.getPath();
+		if (isDirectory)
+			return DIRECTORY_KEY;
+		String ext = FilenameUtils.getExtension(file.getName()).toLowerCase(
+				Locale.ROOT);
+		if (OWN_ICON_EXTENSIONS.contains(ext))
+			return file.getPath();
+		return ext;
+	}
+
+	public Icon getIcon(File file, boolean isDirectory, boolean isRoot) {
+		String key = getKey(file, isDirectory, isRoot);
+		synchronized (this) {
+			Icon icon = icons.get(key);
+			if (icon != null) {
+				hits++;
+				return icon;
+			}
+			misses++;
+		}
+		// native lookup outside lock
+		Icon icon = fileSystemView.getSystemIcon(file);
+		if (icon != null)
+			synchronized (this) {
+				icons.put(key, icon);
+			}
+		return icon;
+	}
+
+	public synchronized void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+		while (icons.size() > maxSize)
+			icons.remove(icons.keySet().iterator().next());
+	}
+
+	public synchronized int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized int size() {
+		return icons.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized void clear() {
+		icons.clear();
+		hits = 0;
+		misses = 0;
+	}
+}
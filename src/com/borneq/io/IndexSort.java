@@ -0,0 +1,42 @@
+package com.borneq.io;
+
+/**
+ * Stable merge sort of int indices by compare(index1, index2), used to sort
+ * primitive keys without boxing or allocation per comparison.
+ */
+abstract class IndexSort {
+	abstract int compare(int index1, int index2);
+
+	void sort(int[] a) {
+		sort(a, new int[a.length], 0, a.length);
+	}
+
+	private void sort(int[] a, int[] tmp, int from, int to) {
+		if (to - from < 16) {
+			for (int i = from + 1; i < to; i++) {
+				int x = a[i];
+				int j = i - 1;
+				while (j >= from && compare(a[j], x) > 0) {
+					a[j + 1] = a[j];
+					j--;
+				}
+				a[j + 1] = x;
+			}
+			return;
+		}
+		int mid = (from + to) >>> 1;
+		sort(a, tmp, from, mid);
+		sort(a, tmp, mid, to);
+		if (compare(a[mid - 1], a[mid]) <= 0)
+			return;
+		System.arraycopy(a, from, tmp, from, to - from);
+		int i = from;
+		int j = mid;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < mid && compare(tmp[i], tmp[j]) <= 0))
+				a[k] = tmp[i++];
+			else
+				a[k] = tmp[j++];
+		}
+	}
+}
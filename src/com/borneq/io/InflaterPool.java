@@ -0,0 +1,36 @@
+package com.borneq.io;
+
+import java.util.ArrayDeque;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of raw (nowrap) inflaters for zip entry data. Inflater holds native
+ * zlib state, so it is reset and reused instead of created per entry.
+ */
+class InflaterPool {
+	private static final int MAX_SIZE = 16;
+	private static final ArrayDeque<Inflater> pool = new ArrayDeque<Inflater>();
+
+	private InflaterPool() {
+	}
+
+	static Inflater obtain() {
+		synchronized (pool) {
+			Inflater inflater = pool.poll();
+			if (inflater != null)
+				return inflater;
+		}
+		return new Inflater(true);
+	}
+
+	static void release(Inflater inflater) {
+		inflater.reset();
+		synchronized (pool) {
+			if (pool.size() < MAX_SIZE) {
+				pool.push(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
+}
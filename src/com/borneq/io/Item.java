@@ -1,6 +1,8 @@
 package com.borneq.io;
 
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.Icon;
 
@@ -10,6 +12,12 @@ public interface Item extends Comparable<Item> {
 	Icon getIcon();
 	List<Item> getItems();
 	List<Item> getItems(boolean twoDots);
+	/**
+	 * Lists directory on executor, delivering unsorted entries without ".." in
+	 * batches as they are read. Cancel returned Future to stop.
+	 */
+	Future<?> listItems(ExecutorService executor, int batchSize,
+			ItemListListener listener);
 	String getName();
 	Item getParentDirectory();
 	boolean isDirectory();
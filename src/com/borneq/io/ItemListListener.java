@@ -0,0 +1,21 @@
+package com.borneq.io;
+
+import java.util.List;
+
+/**
+ * Receives directory entries from
+ * {@link Item#listItems(java.util.concurrent.ExecutorService, int, ItemListListener)},
+ * called on executor thread.
+ */
+public interface ItemListListener {
+	/**
+	 * Next batch of entries in enumeration order, list is not reused.
+	 */
+	void itemsListed(Item dir, List<Item> batch);
+
+	/**
+	 * Called once after last batch, error is null on success. Not called when
+	 * listing was cancelled.
+	 */
+	void listingFinished(Item dir, Exception error);
+}
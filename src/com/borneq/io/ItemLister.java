@@ -0,0 +1,66 @@
+package com.borneq.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Base of asynchronous listing, subclass enumerates directory calling add.
+ * Batches are delivered when full, cancelled Future stops listing before
+ * next batch.
+ */
+abstract class ItemLister implements Callable<Void> {
+	private final Item dir;
+	private final int batchSize;
+	private final ItemListListener listener;
+	private List<Item> batch;
+	private FutureTask<Void> task;
+
+	ItemLister(Item dir, int batchSize, ItemListListener listener) {
+		this.dir = dir;
+		this.batchSize = Math.max(batchSize, 1);
+		this.listener = listener;
+		batch = new ArrayList<Item>(this.batchSize);
+	}
+
+	protected abstract void list() throws Exception;
+
+	protected void add(Item item) throws InterruptedException {
+		batch.add(item);
+		if (batch.size() >= batchSize)
+			flush();
+	}
+
+	private void flush() throws InterruptedException {
+		if (task.isCancelled())
+			throw new InterruptedException();
+		if (!batch.isEmpty()) {
+			listener.itemsListed(dir, batch);
+			batch = new ArrayList<Item>(batchSize);
+		}
+	}
+
+	@Override
+	public Void call() {
+		try {
+			list();
+			flush();
+		} catch (InterruptedException e) {
+			return null;
+		} catch (Exception e) {
+			listener.listingFinished(dir, e);
+			return null;
+		}
+		listener.listingFinished(dir, null);
+		return null;
+	}
+
+	Future<?> submit(ExecutorService executor) {
+		task = new FutureTask<Void>(this);
+		executor.execute(task);
+		return task;
+	}
+}
@@ -0,0 +1,162 @@
+package com.borneq.io;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Sorts directory listing by any SortOrder. Sort keys (collation keys,
+ * lower case names, sizes, times) are computed once per item and column and
+ * kept, so comparisons do not allocate and sorting again by other column
+ * only computes keys of that column. Item ".." always stays first.
+ */
+public class ItemSorter {
+	private final Item[] items;
+	private final boolean[] directory;
+	private final Collator collator = Collator.getInstance();
+	private int dots = -1;
+	private CollationKey[] nameKeys;
+	private String[] naturalKeys;
+	private long[] sizes;
+	private long[] times;
+	private CollationKey[] extensionKeys;
+
+	public ItemSorter(List<Item> items) {
+		this.items = items.toArray(new Item[items.size()]);
+		directory = new boolean[this.items.length];
+		for (int i = 0; i < this.items.length; i++) {
+			directory[i] = this.items[i].isDirectory();
+			if (dots < 0 && "..".equals(this.items[i].getName()))
+				dots = i;
+		}
+	}
+
+	public List<Item> sort(SortOrder order, boolean descending,
+			boolean directoriesFirst) {
+		prepareKeys(order);
+		final SortOrder sortOrder = order;
+		final int sign = descending ? -1 : 1;
+		final boolean dirsFirst = directoriesFirst;
+		int[] index = new int[items.length - (dots >= 0 ? 1 : 0)];
+		for (int i = 0, k = 0; i < items.length; i++)
+			if (i != dots)
+				index[k++] = i;
+		new IndexSort() {
+			@Override
+			int compare(int index1, int index2) {
+				if (dirsFirst && directory[index1] != directory[index2])
+					return directory[index1] ? -1 : 1;
+				return sign * compareKeys(sortOrder, index1, index2);
+			}
+		}.sort(index);
+		List<Item> list = new ArrayList<Item>(items.length);
+		if (dots >= 0)
+			list.add(items[dots]);
+		for (int i : index)
+			list.add(items[i]);
+		return list;
+	}
+
+	private void prepareKeys(SortOrder order) {
+		int n = items.length;
+		if (order == SortOrder.NATURAL) {
+			if (naturalKeys == null) {
+				naturalKeys = new String[n];
+				for (int i = 0; i < n; i++)
+					naturalKeys[i] = items[i].getName().toLowerCase(
+							Locale.ROOT);
+			}
+			return;
+		}
+		// name is tie breaker of other orders
+		if (nameKeys == null) {
+			nameKeys = new CollationKey[n];
+			for (int i = 0; i < n; i++)
+				nameKeys[i] = collator.getCollationKey(items[i].getName());
+		}
+		if (order == SortOrder.EXTENSION && extensionKeys == null) {
+			extensionKeys = new CollationKey[n];
+			for (int i = 0; i < n; i++)
+				extensionKeys[i] = collator.getCollationKey(FilenameUtils
+						.getExtension(items[i].getName()));
+		}
+		if (order == SortOrder.SIZE && sizes == null) {
+			sizes = new long[n];
+			for (int i = 0; i < n; i++)
+				sizes[i] = items[i].length();
+		}
+		if (order == SortOrder.MODIFIED && times == null) {
+			times = new long[n];
+			for (int i = 0; i < n; i++)
+				times[i] = items[i].lastModified();
+		}
+	}
+
+	private int compareKeys(SortOrder order, int index1, int index2) {
+		int cmp;
+		switch (order) {
+		case NATURAL:
+			return compareNatural(naturalKeys[index1], naturalKeys[index2]);
+		case SIZE:
+			cmp = Long.compare(sizes[index1], sizes[index2]);
+			break;
+		case MODIFIED:
+			cmp = Long.compare(times[index1], times[index2]);
+			break;
+		case EXTENSION:
+			cmp = extensionKeys[index1].compareTo(extensionKeys[index2]);
+			break;
+		default:
+			cmp = 0;
+		}
+		if (cmp == 0)
+			cmp = nameKeys[index1].compareTo(nameKeys[index2]);
+		return cmp;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Compares strings with runs of digits compared by numeric value, e.g.
+	 * "file9" before "file10".
+	 */
+	static int compareNatural(String s1, String s2) {
+		int len1 = s1.length();
+		int len2 = s2.length();
+		int i = 0;
+		int j = 0;
+		while (i < len1 && j < len2) {
+			char c1 = s1.charAt(i);
+			char c2 = s2.charAt(j);
+			if (isDigit(c1) && isDigit(c2)) {
+				while (i < len1 && s1.charAt(i) == '0')
+					i++;
+				while (j < len2 && s2.charAt(j) == '0')
+					j++;
+				int end1 = i;
+				while (end1 < len1 && isDigit(s1.charAt(end1)))
+					end1++;
+				int end2 = j;
+				while (end2 < len2 && isDigit(s2.charAt(end2)))
+					end2++;
+				if (end1 - i != end2 - j)
+					return (end1 - i) - (end2 - j);
+				for (; i < end1; i++, j++)
+					if (s1.charAt(i) != s2.charAt(j))
+						return s1.charAt(i) - s2.charAt(j);
+			} else {
+				if (c1 != c2)
+					return c1 - c2;
+				i++;
+				j++;
+			}
+		}
+		return (len1 - i) - (len2 - j);
+	}
+}
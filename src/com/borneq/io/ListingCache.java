@@ -0,0 +1,158 @@
+package com.borneq.io;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shared cache of directory listings keyed by path. Entry is valid while
+ * stamp given by caller (directory modification time, tree version) is
+ * unchanged and entry is not older than max age; least recently used
+ * entries are evicted above max entries. Cached lists are unmodifiable and
+ * returned without copying.
+ */
+public class ListingCache {
+	private static class Listing {
+		final long stamp;
+		final long created;
+		final List<Item> items;
+		List<Item> itemsWithTwoDots;
+
+		Listing(long stamp, long created, List<Item> items) {
+			this.stamp = stamp;
+			this.created = created;
+			this.items = items;
+		}
+
+		List<Item> view(boolean twoDots, Item dotsItem) {
+			if (!twoDots)
+				return items;
+			if (itemsWithTwoDots == null) {
+				List<Item> list = new ArrayList<Item>(items.size() + 1);
+				list.add(dotsItem);
+				list.addAll(items);
+				itemsWithTwoDots = Collections.unmodifiableList(list);
+			}
+			return itemsWithTwoDots;
+		}
+	}
+
+	private static ListingCache defaultCache = new ListingCache(256, 30000);
+
+	private final Map<String, Listing> entries;
+	private int maxEntries;
+	private long maxAgeMillis;
+	private long hits;
+	private long misses;
+
+	public ListingCache(int maxEntries, long maxAgeMillis) {
+		this.maxEntries = maxEntries;
+		this.maxAgeMillis = maxAgeMillis;
+		entries = new LinkedHashMap<String, Listing>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Listing> eldest) {
+				return size() > ListingCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Cache used by RealItem and ArchiveItem getItems.
+	 */
+	public static ListingCache getDefault() {
+		return defaultCache;
+	}
+
+	/**
+	 * Cached listing or null if missing or stale. With twoDots ".." item is
+	 * created by dotsItem once and kept at list start.
+	 */
+	synchronized List<Item> get(String key, long stamp, boolean twoDots,
+			Item dotsItem) {
+		Listing entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.stamp != stamp
+				|| System.currentTimeMillis() - entry.created > maxAgeMillis) {
+			entries.remove(key);
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.view(twoDots, dotsItem);
+	}
+
+	/**
+	 * Stores listing without ".." and returns its unmodifiable view, as get.
+	 * Expired entries are dropped, so they do not keep their items
+	 * reachable until evicted.
+	 */
+	synchronized List<Item> put(String key, long stamp, List<Item> items,
+			boolean twoDots, Item dotsItem) {
+		long now = System.currentTimeMillis();
+		Listing entry = new Listing(stamp, now,
+				Collections.unmodifiableList(items));
+		if (maxEntries > 0) {
+			Iterator<Listing> it = entries.values().iterator();
+			while (it.hasNext())
+				if (now - it.next().created > maxAgeMillis)
+					it.remove();
+			entries.put(key, entry);
+		}
+		return entry.view(twoDots, dotsItem);
+	}
+
+	public synchronized void invalidate(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes listing of key and listings of all keys below it, i.e.
+	 * starting with key followed by separator.
+	 */
+	public synchronized void invalidateAll(String key) {
+		Iterator<String> it = entries.keySet().iterator();
+		while (it.hasNext()) {
+			String k = it.next();
+			if (k.startsWith(key)
+					&& (k.length() == key.length() || k.charAt(key
+							.length()) == File.separatorChar))
+				it.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Zero disables caching.
+	 */
+	public synchronized void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+		while (entries.size() > maxEntries)
+			entries.remove(entries.keySet().iterator().next());
+	}
+
+	public synchronized void setMaxAgeMillis(long maxAgeMillis) {
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,161 @@
+package com.borneq.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorted listing of RealItem directory kept up to date by WatchService.
+ * Events arriving within coalesce delay are merged, each changed name is
+ * checked once and inserted, updated or removed by binary search. Only
+ * overflow of event queue causes full rescan.
+ */
+public class LiveListing implements Closeable {
+	private final RealItem dir;
+	private final Path path;
+	private final WatchService watchService;
+	private final List<Item> items;
+	private long coalesceMillis = 100;
+	private volatile LiveListingListener listener;
+	private Thread thread;
+	private volatile boolean valid = true;
+
+	public LiveListing(RealItem dir) throws IOException {
+		this.dir = dir;
+		path = dir.getFile().toPath();
+		watchService = path.getFileSystem().newWatchService();
+		path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_DELETE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		// registered before listing, so no change is lost; cached listing
+		// may be older than registration and is not used
+		ListingCache.getDefault().invalidate(dir.getCanonicalPath());
+		items = new ArrayList<Item>(dir.getItems(false));
+	}
+
+	public RealItem getDir() {
+		return dir;
+	}
+
+	public void setListener(LiveListingListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Time to wait for further events after first one, default 100 ms.
+	 */
+	public void setCoalesceMillis(long coalesceMillis) {
+		this.coalesceMillis = coalesceMillis;
+	}
+
+	/**
+	 * False after watched directory was deleted or listing closed.
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * Snapshot of current sorted listing, without "..".
+	 */
+	public synchronized List<Item> getItems() {
+		return new ArrayList<Item>(items);
+	}
+
+	/**
+	 * Starts daemon thread applying changes.
+	 */
+	public synchronized void start() {
+		if (thread != null)
+			return;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watch();
+			}
+		}, "LiveListing " + path);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void close() throws IOException {
+		valid = false;
+		watchService.close();
+	}
+
+	private void watch() {
+		try {
+			while (valid) {
+				WatchKey key = watchService.take();
+				Set<Path> changed = new LinkedHashSet<Path>();
+				boolean overflow = false;
+				// coalesce events arriving shortly after first one
+				while (key != null) {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+							overflow = true;
+						else
+							changed.add((Path) event.context());
+					}
+					if (!key.reset())
+						valid = false;
+					key = watchService.poll(coalesceMillis,
+							TimeUnit.MILLISECONDS);
+				}
+				if (overflow)
+					rescan();
+				else
+					apply(changed);
+				LiveListingListener listener = this.listener;
+				if (listener != null)
+					listener.listingChanged(this);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			valid = false;
+		}
+	}
+
+	private void rescan() {
+		ListingCache.getDefault().invalidate(dir.getCanonicalPath());
+		List<Item> list = dir.getItems(false);
+		synchronized (this) {
+			items.clear();
+			items.addAll(list);
+		}
+	}
+
+	private void apply(Set<Path> changed) {
+		// size or time of entry may change without touching directory
+		ListingCache.getDefault().invalidate(dir.getCanonicalPath());
+		for (Path name : changed) {
+			Path child = path.resolve(name);
+			File file = child.toFile();
+			BasicFileAttributes attrs = RealItem.readAttributes(child);
+			RealItem item = new RealItem(file, attrs);
+			synchronized (this) {
+				int pos = Collections.binarySearch(items, item);
+				if (attrs == null) {
+					if (pos >= 0)
+						items.remove(pos);
+				} else if (pos >= 0)
+					items.set(pos, item);
+				else
+					items.add(-pos - 1, item);
+			}
+		}
+	}
+}
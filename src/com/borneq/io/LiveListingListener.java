@@ -0,0 +1,8 @@
+package com.borneq.io;
+
+/**
+ * Notified from watcher thread after LiveListing applied batch of changes.
+ */
+public interface LiveListingListener {
+	void listingChanged(LiveListing listing);
+}
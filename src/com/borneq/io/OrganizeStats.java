@@ -0,0 +1,60 @@
+package com.borneq.io;
+
+/**
+ * Counters and timings of single ArchiveTree.organize call. Collected only
+ * when ArchiveTreeListener is installed.
+ */
+public class OrganizeStats {
+	int entries;
+	int directories;
+	int implicitDirectories;
+	int maxChildren;
+	int maxDepth;
+	long sortNanos;
+	long linkNanos;
+
+	/** Number of entries added to tree */
+	public int getEntries() {
+		return entries;
+	}
+
+	/** Number of directories which got child list */
+	public int getDirectories() {
+		return directories;
+	}
+
+	/** Number of directories missing in archive and created by organize */
+	public int getImplicitDirectories() {
+		return implicitDirectories;
+	}
+
+	/** Peak size of single directory child list */
+	public int getMaxChildren() {
+		return maxChildren;
+	}
+
+	/** Peak nesting level */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	public long getSortNanos() {
+		return sortNanos;
+	}
+
+	public long getLinkNanos() {
+		return linkNanos;
+	}
+
+	public long getTotalNanos() {
+		return sortNanos + linkNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"entries=%d directories=%d implicit=%d maxChildren=%d maxDepth=%d sort=%dms link=%dms",
+				entries, directories, implicitDirectories, maxChildren, maxDepth,
+				sortNanos / 1000000, linkNanos / 1000000);
+	}
+}
@@ -0,0 +1,115 @@
+package com.borneq.io;
+
+/**
+ * Open addressing hash table of ArchiveItems keyed by path. Lookup by path
+ * prefix (path, end) hashes characters in place, so no substring is created.
+ * Hash is the same as String.hashCode, thus put uses hash cached in path.
+ */
+class PathTable {
+	private ArchiveItem[] table;
+	private int size;
+
+	PathTable(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2)
+			capacity <<= 1;
+		table = new ArchiveItem[capacity];
+	}
+
+	private static int hash(String path, int end) {
+		int h = 0;
+		for (int i = 0; i < end; i++)
+			h = 31 * h + path.charAt(i);
+		return h;
+	}
+
+	private static int mix(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	void put(ArchiveItem item) {
+		if (size * 2 >= table.length)
+			resize();
+		String path = item.path;
+		int mask = table.length - 1;
+		int i = mix(path.hashCode()) & mask;
+		while (table[i] != null) {
+			if (table[i].path.equals(path)) {
+				table[i] = item;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = item;
+		size++;
+	}
+
+	/**
+	 * Removes item with path. Following items of its probe run are moved
+	 * back, so no deleted markers are needed.
+	 */
+	void remove(String path) {
+		int mask = table.length - 1;
+		int i = mix(path.hashCode()) & mask;
+		while (true) {
+			if (table[i] == null)
+				return;
+			if (table[i].path.equals(path))
+				break;
+			i = (i + 1) & mask;
+		}
+		table[i] = null;
+		size--;
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			ArchiveItem item = table[j];
+			if (item == null)
+				return;
+			int home = mix(item.path.hashCode()) & mask;
+			// item can fill hole at i unless its home lies in (i, j]
+			boolean between = i < j ? home > i && home <= j : home > i
+					|| home <= j;
+			if (!between) {
+				table[i] = item;
+				table[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	ArchiveItem get(String path) {
+		return get(path, path.length());
+	}
+
+	/**
+	 * Finds item which path is equal to path.substring(0, end)
+	 */
+	ArchiveItem get(String path, int end) {
+		int mask = table.length - 1;
+		int i = mix(end == path.length() ? path.hashCode() : hash(path, end))
+				& mask;
+		ArchiveItem item;
+		while ((item = table[i]) != null) {
+			String itemPath = item.path;
+			if (itemPath.length() == end
+					&& path.regionMatches(0, itemPath, 0, end))
+				return item;
+			i = (i + 1) & mask;
+		}
+		return null;
+	}
+
+	int size() {
+		return size;
+	}
+
+	private void resize() {
+		ArchiveItem[] old = table;
+		table = new ArchiveItem[old.length * 2];
+		size = 0;
+		for (ArchiveItem item : old)
+			if (item != null)
+				put(item);
+	}
+}
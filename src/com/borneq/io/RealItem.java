@@ -2,9 +2,17 @@ package com.borneq.io;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.swing.Icon;
 import javax.swing.filechooser.FileSystemView;
@@ -13,8 +21,14 @@ import org.apache.commons.io.FilenameUtils;
 
 public class RealItem implements Item {
 	private File file;
+	// type, size and time read once by single stat
+	private BasicFileAttributes attrs;
+	private boolean attrsRead;
+	private Boolean fileSystemRoot;
+	private String canonicalPath;
 	private static FileSystemView fileSystemView = FileSystemView
 			.getFileSystemView();
+	private static final RealItem DOTS = new RealItem("..");
 
 	@Override
 	public int compareTo(Item o) {
@@ -29,19 +43,64 @@ public class RealItem implements Item {
 		file = new File(path);
 	}
 
-	@Override
-	public String getCanonicalPath() {
+	RealItem(File file, BasicFileAttributes attrs) {
+		this.file = file;
+		this.attrs = attrs;
+		attrsRead = true;
+		fileSystemRoot = Boolean.FALSE;
+	}
+
+	/**
+	 * Cached attributes, null if file does not exist or is not a file system
+	 * object (shell folder), then File methods are used.
+	 */
+	private BasicFileAttributes getAttributes() {
+		if (!attrsRead) {
+			try {
+				attrs = readAttributes(file.toPath());
+			} catch (InvalidPathException e) {
+				attrs = null;
+			}
+			attrsRead = true;
+		}
+		return attrs;
+	}
+
+	static BasicFileAttributes readAttributes(Path path, LinkOption... options) {
 		try {
-			return file.getCanonicalPath();
+			return Files.readAttributes(path, BasicFileAttributes.class,
+					options);
 		} catch (IOException e) {
 			return null;
 		}
 	}
 
+	/**
+	 * Resolved once, links and relative parts are resolved by file system.
+	 */
+	@Override
+	public String getCanonicalPath() {
+		if (canonicalPath == null) {
+			try {
+				canonicalPath = file.getCanonicalPath();
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return canonicalPath;
+	}
+
+	/**
+	 * Absolute path for display, computed without file system access.
+	 */
+	public String getAbsolutePath() {
+		return file.getAbsolutePath();
+	}
+
 	@Override
 	public String getRealDir() {
 		String path = getCanonicalPath();
-		if (file.isDirectory())
+		if (isDirectory())
 			return path;
 		else
 			return FilenameUtils.getFullPathNoEndSeparator(path);
@@ -53,7 +112,8 @@ public class RealItem implements Item {
 
 	@Override
 	public Icon getIcon() {
-		return fileSystemView.getSystemIcon(file);
+		return IconCache.getDefault().getIcon(file, isDirectory(),
+				isFileSystemRoot());
 	}
 
 	@Override
@@ -61,19 +121,83 @@ public class RealItem implements Item {
 		return getItems(!isFileSystemRoot());
 	}
 
+	/**
+	 * Listing is taken from ListingCache while modification time of directory
+	 * is unchanged, returned list is unmodifiable. File rewritten in place
+	 * does not change directory time, so its length and time may be stale up
+	 * to cache max age; LiveListing keeps them current.
+	 */
 	@Override
 	public List<Item> getItems(boolean twoDots) {
-		File[] files = fileSystemView.getFiles(getFile(), false);
+		ListingCache cache = ListingCache.getDefault();
+		String key = getCanonicalPath();
+		long stamp = 0;
+		if (key != null) {
+			stamp = new File(key).lastModified();
+			List<Item> cached = cache.get(key, stamp, twoDots, DOTS);
+			if (cached != null)
+				return cached;
+		}
 		List<Item> items = new ArrayList<Item>();
-		for (File file : files) {
-			items.add(new RealItem(file));
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(file
+				.toPath())) {
+			for (Path path : stream)
+				items.add(new RealItem(path.toFile(), readAttributes(path)));
+		} catch (IOException | InvalidPathException e) {
+			// not a plain directory, e.g. virtual shell folder
+			items.clear();
+			File[] files = fileSystemView.getFiles(getFile(), false);
+			for (File file : files) {
+				items.add(new RealItem(file));
+			}
 		}
 		Collections.sort(items);
+		if (key != null)
+			return cache.put(key, stamp, items, twoDots, DOTS);
 		if (twoDots)
-			items.add(0, new RealItem(".."));
+			items.add(0, DOTS);
+		return Collections.unmodifiableList(items);
+	}
+
+	/**
+	 * Unsorted and uncached listing of plain directory.
+	 */
+	List<RealItem> list(LinkOption... options) throws IOException {
+		List<RealItem> items = new ArrayList<RealItem>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(file
+				.toPath())) {
+			for (Path path : stream)
+				items.add(new RealItem(path.toFile(), readAttributes(path,
+						options)));
+		}
 		return items;
 	}
 
+	@Override
+	public Future<?> listItems(ExecutorService executor, int batchSize,
+			ItemListListener listener) {
+		return new ItemLister(this, batchSize, listener) {
+			@Override
+			protected void list() throws Exception {
+				Path dir;
+				try {
+					dir = file.toPath();
+				} catch (InvalidPathException e) {
+					dir = null;
+				}
+				if (dir == null || !Files.isDirectory(dir)) {
+					for (File file : fileSystemView.getFiles(getFile(), false))
+						add(new RealItem(file));
+					return;
+				}
+				try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+					for (Path path : stream)
+						add(new RealItem(path.toFile(), readAttributes(path)));
+				}
+			}
+		}.submit(executor);
+	}
+
 	@Override
 	public String getName() {
 		return file.getName();
@@ -86,21 +210,27 @@ public class RealItem implements Item {
 
 	@Override
 	public boolean isDirectory() {
-		return file.isDirectory();
+		BasicFileAttributes attrs = getAttributes();
+		return attrs != null ? attrs.isDirectory() : file.isDirectory();
 	}
 
 	@Override
 	public boolean isFileSystemRoot() {
-		return fileSystemView.isFileSystemRoot(file);
+		if (fileSystemRoot == null)
+			fileSystemRoot = fileSystemView.isFileSystemRoot(file);
+		return fileSystemRoot;
 	}
 
 	@Override
 	public long lastModified() {
-		return file.lastModified();
+		BasicFileAttributes attrs = getAttributes();
+		return attrs != null ? attrs.lastModifiedTime().toMillis() : file
+				.lastModified();
 	}
 
 	@Override
 	public long length() {
-		return file.length();
+		BasicFileAttributes attrs = getAttributes();
+		return attrs != null ? attrs.size() : file.length();
 	}
 }
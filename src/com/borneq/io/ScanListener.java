@@ -0,0 +1,9 @@
+package com.borneq.io;
+
+/**
+ * Progress of TreeScanner, called from worker threads at most every
+ * progress interval.
+ */
+public interface ScanListener {
+	void scanProgress(long files, long directories, long bytes);
+}
@@ -0,0 +1,51 @@
+package com.borneq.io;
+
+/**
+ * Aggregate of directory subtree computed by TreeScanner. Counts do not
+ * include scanned directory itself.
+ */
+public class ScanResult {
+	long bytes;
+	long files;
+	long directories;
+	long newest;
+	long errors;
+
+	void add(ScanResult other) {
+		bytes += other.bytes;
+		files += other.files;
+		directories += other.directories;
+		errors += other.errors;
+		if (other.newest > newest)
+			newest = other.newest;
+	}
+
+	/** Total length of files */
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getFiles() {
+		return files;
+	}
+
+	public long getDirectories() {
+		return directories;
+	}
+
+	/** Newest modification time of any entry, 0 if empty */
+	public long getNewest() {
+		return newest;
+	}
+
+	/** Number of directories which could not be listed */
+	public long getErrors() {
+		return errors;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("bytes=%d files=%d directories=%d errors=%d",
+				bytes, files, directories, errors);
+	}
+}
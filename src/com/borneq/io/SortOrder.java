@@ -0,0 +1,15 @@
+package com.borneq.io;
+
+/**
+ * Column of directory listing sorted by ItemSorter.
+ */
+public enum SortOrder {
+	/** Name by locale collation */
+	NAME,
+	/** Name with digit runs compared as numbers, case insensitive */
+	NATURAL,
+	SIZE,
+	MODIFIED,
+	/** Extension, then name */
+	EXTENSION
+}
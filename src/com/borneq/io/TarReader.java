@@ -0,0 +1,481 @@
+package com.borneq.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import com.borneq.util.TimeUtil;
+
+/**
+ * Reads headers of tar or gzip compressed tar archive and feeds entries to
+ * sink as they are read, no listing is collected first. Entry data is never
+ * read: plain tar skips it by moving channel position, compressed one has to
+ * inflate it but discards it without copying. Supports ustar prefix, GNU long
+ * names and pax extended headers. With create and load entries of
+ * ArchiveTree become visible progressively, while archive is read.
+ */
+public class TarReader {
+	private static final int BLOCK = 512;
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final long PROGRESS_MILLIS = 200;
+
+	private static final int S_IFDIR = 0x4000;
+	private static final int S_IFREG = 0x8000;
+	private static final int S_IFLNK = 0xA000;
+
+	private TarReader() {
+	}
+
+	/**
+	 * Creates ArchiveTree for given tar or tar.gz file, fills it with entries
+	 * and organizes it.
+	 */
+	public static ArchiveTree open(String archiveName) throws Exception {
+		return open(archiveName, false);
+	}
+
+	/**
+	 * As open(archiveName), lazy tree sorts and links each directory on
+	 * first listing, see {@link ArchiveTree#setLazy(boolean)}.
+	 */
+	public static ArchiveTree open(String archiveName, boolean lazy)
+			throws Exception {
+		ArchiveTree tree = new ArchiveTree(archiveName);
+		tree.setLazy(lazy);
+		read(new File(archiveName), tree, null);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * Creates organized empty ArchiveTree for given tar or tar.gz file, to be
+	 * filled by load.
+	 */
+	public static ArchiveTree create(String archiveName, boolean lazy)
+			throws Exception {
+		ArchiveTree tree = new ArchiveTree(archiveName);
+		tree.setLazy(lazy);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * Reads archive of tree created by create in executor. Entries are
+	 * inserted as their headers arrive, each insert changes tree version, so
+	 * tree can be browsed while reading and its listings are refreshed.
+	 * Returned future completes when archive is read, its get throws reading
+	 * error; cancelling it with interruption stops reading.
+	 */
+	public static Future<?> load(final ArchiveTree tree,
+			ExecutorService executor, final ArchiveReadListener listener) {
+		return executor.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				read(new File(tree.getPath()), tree, listener);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Creates CompactArchiveTree for given tar or tar.gz file.
+	 */
+	public static CompactArchiveTree openCompact(String archiveName)
+			throws Exception {
+		CompactArchiveTree tree = new CompactArchiveTree(archiveName);
+		read(new File(archiveName), tree, null);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * Adds all entries of tar file to sink, gzip compression is detected by
+	 * its magic. Organized ArchiveTree sink gets entries inserted. Listener, if not null, is called from reading thread at
+	 * most every 200 ms and once at end.
+	 */
+	public static void read(File file, ArchiveSink sink,
+			ArchiveReadListener listener) throws Exception {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			ByteBuffer magic = ByteBuffer.allocate(2);
+			channel.read(magic, 0);
+			Source source;
+			if (magic.get(0) == (byte) 0x1f && magic.get(1) == (byte) 0x8b)
+				source = new GzipSource(channel);
+			else
+				source = new ChannelSource(channel);
+			new Parser(source, sink, listener, channel.size()).parse();
+		}
+	}
+
+	/**
+	 * Tar stream, position is offset in archive file for progress.
+	 */
+	private static abstract class Source {
+		/**
+		 * Reads len bytes, less only at end of archive.
+		 */
+		abstract int read(byte[] b, int len) throws IOException;
+
+		/**
+		 * Skips n bytes, throws EOFException if archive ends before.
+		 */
+		abstract void skip(long n) throws IOException;
+
+		abstract long position() throws IOException;
+	}
+
+	private static class ChannelSource extends Source {
+		private final FileChannel channel;
+		private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+		ChannelSource(FileChannel channel) throws IOException {
+			this.channel = channel;
+			channel.position(0);
+			buf.flip();
+		}
+
+		@Override
+		int read(byte[] b, int len) throws IOException {
+			int off = 0;
+			while (off < len) {
+				if (!buf.hasRemaining()) {
+					buf.clear();
+					int n = channel.read(buf);
+					buf.flip();
+					if (n < 0)
+						break;
+				}
+				int n = Math.min(len - off, buf.remaining());
+				buf.get(b, off, n);
+				off += n;
+			}
+			return off;
+		}
+
+		@Override
+		void skip(long n) throws IOException {
+			if (n <= buf.remaining()) {
+				buf.position(buf.position() + (int) n);
+				return;
+			}
+			// payload beyond buffer is not read at all
+			long position = channel.position() + n - buf.remaining();
+			if (position > channel.size())
+				throw new EOFException();
+			channel.position(position);
+			buf.clear();
+			buf.flip();
+		}
+
+		@Override
+		long position() throws IOException {
+			return channel.position() - buf.remaining();
+		}
+	}
+
+	private static class GzipSource extends Source {
+		private final FileChannel channel;
+		private final InputStream in;
+		private final byte[] scratch = new byte[BUFFER_SIZE];
+
+		GzipSource(FileChannel channel) throws IOException {
+			this.channel = channel;
+			channel.position(0);
+			in = new GZIPInputStream(Channels.newInputStream(channel),
+					BUFFER_SIZE);
+		}
+
+		@Override
+		int read(byte[] b, int len) throws IOException {
+			int off = 0;
+			while (off < len) {
+				int n = in.read(b, off, len - off);
+				if (n < 0)
+					break;
+				off += n;
+			}
+			return off;
+		}
+
+		@Override
+		void skip(long n) throws IOException {
+			// InflaterInputStream.skip inflates through 512 byte buffer
+			while (n > 0) {
+				int r = in.read(scratch, 0, (int) Math.min(n, scratch.length));
+				if (r < 0)
+					throw new EOFException();
+				n -= r;
+			}
+		}
+
+		@Override
+		long position() throws IOException {
+			return channel.position();
+		}
+	}
+
+	private static class Parser {
+		private final Source source;
+		private final ArchiveSink sink;
+		private final ArchiveReadListener listener;
+		private final long size;
+		private final byte[] header = new byte[BLOCK];
+		private byte[] data = new byte[BLOCK];
+		private long entries;
+		private long lastProgress;
+		// overrides of next entry from GNU long name and pax headers
+		private String longName;
+		private String paxPath;
+		private long paxSize = -1;
+		private long paxTime = -1;
+
+		Parser(Source source, ArchiveSink sink, ArchiveReadListener listener,
+				long size) {
+			this.source = source;
+			this.sink = sink;
+			this.listener = listener;
+			this.size = size;
+		}
+
+		void parse() throws Exception {
+			lastProgress = System.currentTimeMillis();
+			try {
+				parseEntries();
+			} catch (EOFException e) {
+				throw new EOFException("Truncated tar archive at entry "
+						+ entries);
+			}
+			if (listener != null)
+				listener.readProgress(entries, source.position(), size);
+		}
+
+		private void parseEntries() throws Exception {
+			while (true) {
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				int n = source.read(header, BLOCK);
+				// archive without end blocks
+				if (n == 0)
+					break;
+				if (n < BLOCK)
+					throw new EOFException();
+				if (isZeroBlock())
+					break;
+				if (!checksumValid())
+					throw new Exception("Invalid tar header at entry "
+							+ entries);
+				long length = parseNumber(124, 12);
+				byte type = header[156];
+				if (type == 'L' || type == 'x') {
+					readData(length);
+					if (type == 'L')
+						longName = decode(data, 0, (int) length);
+					else
+						parsePax((int) length);
+					continue;
+				}
+				if (paxSize >= 0)
+					length = paxSize;
+				// long link names, global pax headers and volume label
+				if (type == 'K' || type == 'g' || type == 'V')
+					source.skip(padded(length));
+				else {
+					addEntry(type, length);
+					// links and directories carry no data, GNU dumpdir has
+					// listing of directory
+					if (type != '1' && type != '2' && type != '5')
+						source.skip(padded(length));
+				}
+				longName = null;
+				paxPath = null;
+				paxSize = -1;
+				paxTime = -1;
+			}
+		}
+
+		private void addEntry(byte type, long length) throws Exception {
+			String name = longName != null ? longName : paxPath;
+			if (name == null) {
+				name = decode(header, 0, 100);
+				if (header[257] == 'u' && header[258] == 's'
+						&& header[259] == 't' && header[260] == 'a'
+						&& header[261] == 'r' && header[262] == 0
+						&& header[345] != 0)
+					name = decode(header, 345, 155) + '/' + name;
+			}
+			boolean isDirectory = type == '5' || type == 'D'
+					|| name.endsWith("/");
+			String path = normalize(name);
+			int mode = (int) parseNumber(100, 8) & 07777;
+			if (isDirectory)
+				mode |= S_IFDIR;
+			else if (type == '2')
+				mode |= S_IFLNK;
+			else
+				mode |= S_IFREG;
+			long time = paxTime >= 0 ? paxTime : parseNumber(136, 12);
+			entries++;
+			if (path.isEmpty())
+				return;
+			sink.addEntry(path, mode, isDirectory ? 0 : length,
+					TimeUtil.javaToDosTime(time * 1000));
+			if (listener != null) {
+				long now = System.currentTimeMillis();
+				if (now - lastProgress >= PROGRESS_MILLIS) {
+					lastProgress = now;
+					listener.readProgress(entries, source.position(), size);
+				}
+			}
+		}
+
+		private void readData(long length) throws Exception {
+			if (length < 0 || length > Integer.MAX_VALUE - BLOCK)
+				throw new Exception("Invalid extended header at entry "
+						+ entries);
+			int len = (int) padded(length);
+			if (data.length < len)
+				data = new byte[len];
+			if (source.read(data, len) < len)
+				throw new EOFException();
+		}
+
+		/**
+		 * Records of form "length key=value\n".
+		 */
+		private void parsePax(int length) throws Exception {
+			int pos = 0;
+			while (pos < length) {
+				int space = pos;
+				while (space < length && data[space] != ' ')
+					space++;
+				int recordLen = Integer.parseInt(new String(data, pos, space
+						- pos, StandardCharsets.ISO_8859_1));
+				int end = pos + recordLen;
+				if (recordLen <= 0 || end > length)
+					throw new Exception("Invalid pax header at entry "
+							+ entries);
+				int eq = space + 1;
+				while (eq < end && data[eq] != '=')
+					eq++;
+				String key = new String(data, space + 1, eq - space - 1,
+						StandardCharsets.ISO_8859_1);
+				// value ends before newline
+				String value = decode(data, eq + 1, end - eq - 2);
+				if (key.equals("path"))
+					paxPath = value;
+				else if (key.equals("size"))
+					paxSize = Long.parseLong(value);
+				else if (key.equals("mtime")) {
+					int dot = value.indexOf('.');
+					paxTime = Long.parseLong(dot < 0 ? value : value.substring(
+							0, dot));
+				}
+				pos = end;
+			}
+		}
+
+		private boolean isZeroBlock() {
+			for (int i = 0; i < BLOCK; i++)
+				if (header[i] != 0)
+					return false;
+			return true;
+		}
+
+		/**
+		 * Sum of header bytes with checksum field taken as spaces, some old
+		 * writers summed signed bytes.
+		 */
+		private boolean checksumValid() {
+			long stored = parseNumber(148, 8);
+			long unsigned = 0;
+			long signed = 0;
+			for (int i = 0; i < BLOCK; i++) {
+				int b = i >= 148 && i < 156 ? ' ' : header[i];
+				unsigned += b & 0xFF;
+				signed += b;
+			}
+			return stored == unsigned || stored == signed;
+		}
+
+		/**
+		 * Octal number terminated by space or NUL, or base-256 number if
+		 * high bit of first byte is set.
+		 */
+		private long parseNumber(int off, int len) {
+			long value = 0;
+			if ((header[off] & 0x80) != 0) {
+				value = header[off] & 0x7F;
+				for (int i = 1; i < len; i++)
+					value = (value << 8) | (header[off + i] & 0xFF);
+				return value;
+			}
+			int end = off + len;
+			int i = off;
+			while (i < end && (header[i] == ' ' || header[i] == 0))
+				i++;
+			for (; i < end; i++) {
+				byte b = header[i];
+				if (b < '0' || b > '7')
+					break;
+				value = (value << 3) | (b - '0');
+			}
+			return value;
+		}
+	}
+
+	private static long padded(long length) {
+		return (length + BLOCK - 1) & -BLOCK;
+	}
+
+	/**
+	 * NUL terminated UTF-8 string within field, pure ASCII skips decoder.
+	 */
+	private static String decode(byte[] b, int off, int len) {
+		int end = off;
+		boolean ascii = true;
+		while (end < off + len && b[end] != 0) {
+			if (b[end] < 0)
+				ascii = false;
+			end++;
+		}
+		return new String(b, off, end - off, ascii ? StandardCharsets.ISO_8859_1
+				: StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Converts '/' to platform separator, removes leading "./" and '/' and
+	 * trailing '/'. "." gives empty path.
+	 */
+	private static String normalize(String name) {
+		int from = 0;
+		int to = name.length();
+		while (true) {
+			if (from < to && name.charAt(from) == '/')
+				from++;
+			else if (from + 1 < to && name.charAt(from) == '.'
+					&& name.charAt(from + 1) == '/')
+				from += 2;
+			else
+				break;
+		}
+		while (to > from && name.charAt(to - 1) == '/')
+			to--;
+		if (to - from == 1 && name.charAt(from) == '.')
+			return "";
+		String path = name.substring(from, to);
+		if (File.separatorChar != '/')
+			path = path.replace('/', File.separatorChar);
+		return path;
+	}
+}
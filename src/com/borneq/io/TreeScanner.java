@@ -0,0 +1,147 @@
+package com.borneq.io;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Computes total size, file and directory count and newest time of Item
+ * subtree, each directory is listed by separate fork-join task. Real
+ * directories are listed without following symbolic links and bypassing
+ * ListingCache; archive directories give aggregates kept by their tree.
+ */
+public class TreeScanner {
+	private final ForkJoinPool pool;
+	private volatile boolean cancelled;
+	private ScanListener listener;
+	private long progressMillis = 200;
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong directories = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong lastProgress = new AtomicLong();
+
+	public TreeScanner(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	public void setListener(ScanListener listener) {
+		this.listener = listener;
+	}
+
+	public void setProgressMillis(long progressMillis) {
+		this.progressMillis = progressMillis;
+	}
+
+	/**
+	 * Stops running scan, scan then throws CancellationException. Scans
+	 * started later are cancelled too, until reset.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Clears cancellation, so that scanner can be used again.
+	 */
+	public void reset() {
+		cancelled = false;
+	}
+
+	/**
+	 * Scans subtree of dir, blocks until done.
+	 */
+	public ScanResult scan(Item dir) {
+		files.set(0);
+		directories.set(0);
+		bytes.set(0);
+		lastProgress.set(System.currentTimeMillis());
+		ScanResult result = pool.invoke(new ScanTask(dir));
+		if (cancelled)
+			throw new CancellationException();
+		if (listener != null)
+			listener.scanProgress(files.get(), directories.get(), bytes.get());
+		return result;
+	}
+
+	private List<? extends Item> list(Item dir) throws Exception {
+		if (dir instanceof RealItem) {
+			try {
+				return ((RealItem) dir).list(LinkOption.NOFOLLOW_LINKS);
+			} catch (InvalidPathException e) {
+				// shell folder, listed below
+			}
+		}
+		return dir.getItems(false);
+	}
+
+	private void progress(long fileCount, long dirCount, long byteCount) {
+		long f = files.addAndGet(fileCount);
+		long d = directories.addAndGet(dirCount);
+		long b = bytes.addAndGet(byteCount);
+		ScanListener listener = this.listener;
+		if (listener == null)
+			return;
+		long now = System.currentTimeMillis();
+		long last = lastProgress.get();
+		if (now - last >= progressMillis
+				&& lastProgress.compareAndSet(last, now))
+			listener.scanProgress(f, d, b);
+	}
+
+	private class ScanTask extends RecursiveTask<ScanResult> {
+		private static final long serialVersionUID = 1L;
+
+		private final Item dir;
+
+		ScanTask(Item dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		protected ScanResult compute() {
+			ScanResult result = new ScanResult();
+			if (cancelled)
+				return result;
+			if (dir instanceof ArchiveItem) {
+				// archive tree keeps aggregates of each directory
+				ArchiveItem archiveDir = (ArchiveItem) dir;
+				result.files = archiveDir.getFileCount();
+				result.directories = archiveDir.getDirectoryCount();
+				result.bytes = archiveDir.getTotalLength();
+				result.newest = archiveDir.getNewestModified();
+				progress(result.files, result.directories, result.bytes);
+				return result;
+			}
+			List<? extends Item> items;
+			try {
+				items = list(dir);
+			} catch (Exception e) {
+				result.errors++;
+				return result;
+			}
+			List<ScanTask> tasks = new ArrayList<ScanTask>();
+			for (Item item : items) {
+				long time = item.lastModified();
+				if (time > result.newest)
+					result.newest = time;
+				if (item.isDirectory()) {
+					result.directories++;
+					tasks.add(new ScanTask(item));
+				} else {
+					result.files++;
+					result.bytes += item.length();
+				}
+			}
+			progress(result.files, result.directories, result.bytes);
+			invokeAll(tasks);
+			for (ScanTask task : tasks)
+				result.add(task.join());
+			return result;
+		}
+	}
+}
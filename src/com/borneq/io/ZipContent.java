@@ -0,0 +1,371 @@
+package com.borneq.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entry data of zip archive read through memory mapping. Archive up to 2 GB
+ * is mapped once and shared by all entries, larger one is mapped per entry.
+ * Nested archive is read from buffer with its data.
+ * Stored entries are returned as read-only slices of mapping, deflated ones
+ * are inflated by pooled inflaters.
+ */
+class ZipContent {
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int LOC_SIZE = 30;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final File file;
+	private ByteBuffer mapping;
+	private boolean mapped;
+
+	ZipContent(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Content of archive held in buffer, e.g. entry of outer archive.
+	 */
+	ZipContent(ByteBuffer archive) {
+		file = null;
+		mapping = archive.asReadOnlyBuffer().slice();
+		mapped = true;
+	}
+
+	/**
+	 * Whole archive mapping or null if archive is too large.
+	 */
+	private synchronized ByteBuffer getMapping() throws IOException {
+		if (!mapped) {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+					FileChannel channel = raf.getChannel()) {
+				if (channel.size() <= Integer.MAX_VALUE)
+					mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+							channel.size());
+			}
+			mapped = true;
+		}
+		return mapping;
+	}
+
+	private static void checkRange(long position, long size, long total)
+			throws Exception {
+		if (size > Integer.MAX_VALUE)
+			throw new Exception("Entry too large to map: " + size);
+		if (position < 0 || position + size > total)
+			throw new Exception("Entry beyond end of archive");
+	}
+
+	private static ByteBuffer slice(ByteBuffer whole, long position,
+			long size) throws Exception {
+		checkRange(position, size, whole.capacity());
+		ByteBuffer buf = whole.duplicate();
+		buf.position((int) position);
+		buf.limit((int) (position + size));
+		buf = buf.slice();
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		return buf;
+	}
+
+	/**
+	 * Offset of entry data, local header is at headerOffset.
+	 */
+	private static long dataOffset(ByteBuffer header, long headerOffset)
+			throws Exception {
+		if (header.getInt(0) != LOC_SIG)
+			throw new Exception("Invalid local header at " + headerOffset
+					+ ", archive changed?");
+		int nameLen = header.getShort(26) & 0xFFFF;
+		int extraLen = header.getShort(28) & 0xFFFF;
+		return headerOffset + LOC_SIZE + nameLen + extraLen;
+	}
+
+	/**
+	 * Raw entry data following local header, without copying. Entry of
+	 * archive too large to be mapped whole is mapped alone, its header is
+	 * read.
+	 */
+	ByteBuffer getRawData(long headerOffset, long compressedSize)
+			throws Exception {
+		ByteBuffer whole = getMapping();
+		if (whole != null)
+			return slice(whole, dataOffset(slice(whole, headerOffset,
+					LOC_SIZE), headerOffset), compressedSize);
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			checkRange(headerOffset, LOC_SIZE, channel.size());
+			ByteBuffer header = ByteBuffer.allocate(LOC_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining())
+				if (channel.read(header, headerOffset + header.position()) < 0)
+					throw new EOFException("Unexpected end of archive");
+			long position = dataOffset(header, headerOffset);
+			checkRange(position, compressedSize, channel.size());
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					position, compressedSize);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		}
+	}
+
+	ByteBuffer getData(int method, long headerOffset, long compressedSize,
+			long length) throws Exception {
+		ByteBuffer raw = getRawData(headerOffset, compressedSize);
+		if (method == STORED)
+			return raw;
+		checkMethod(method);
+		if (length > Integer.MAX_VALUE)
+			throw new Exception("Entry too large to inflate: " + length);
+		byte[] out = new byte[(int) length];
+		byte[] in = new byte[Math.min(BUFFER_SIZE, raw.remaining() + 1)];
+		Inflater inflater = InflaterPool.obtain();
+		try {
+			int off = 0;
+			while (off < out.length) {
+				int n = inflate(inflater, raw, in, out, off, out.length - off);
+				if (n < 0)
+					break;
+				off += n;
+			}
+			if (off < out.length)
+				throw new EOFException("Entry data shorter than its length");
+		} finally {
+			InflaterPool.release(inflater);
+		}
+		return ByteBuffer.wrap(out);
+	}
+
+	/**
+	 * Writes entry data to out. Inflater and buffers are given by caller, so
+	 * they are reused for many entries; inflater is reset here.
+	 */
+	void transferTo(int method, long headerOffset, long compressedSize,
+			WritableByteChannel out, Inflater inflater, byte[] in, byte[] buf)
+			throws Exception {
+		ByteBuffer raw = getRawData(headerOffset, compressedSize);
+		if (method == STORED) {
+			while (raw.hasRemaining())
+				out.write(raw);
+			return;
+		}
+		checkMethod(method);
+		inflater.reset();
+		int n;
+		while ((n = inflate(inflater, raw, in, buf, 0, buf.length)) >= 0) {
+			ByteBuffer chunk = ByteBuffer.wrap(buf, 0, n);
+			while (chunk.hasRemaining())
+				out.write(chunk);
+		}
+	}
+
+	/**
+	 * Inflates at most len bytes into out, input is taken from raw through in.
+	 * Returns number of bytes inflated, -1 when inflater finished.
+	 */
+	private static int inflate(Inflater inflater, ByteBuffer raw, byte[] in,
+			byte[] out, int off, int len) throws Exception {
+		while (!inflater.finished()) {
+			int n = inflater.inflate(out, off, len);
+			if (n > 0)
+				return n;
+			if (inflater.finished())
+				break;
+			if (!inflater.needsInput())
+				throw new Exception("Invalid deflated data");
+			if (raw.hasRemaining()) {
+				int k = Math.min(in.length, raw.remaining());
+				raw.get(in, 0, k);
+				inflater.setInput(in, 0, k);
+			} else if (inflater.getBytesRead() <= raw.capacity()) {
+				// raw inflater may need dummy byte after data
+				in[0] = 0;
+				inflater.setInput(in, 0, 1);
+			} else
+				throw new EOFException("Unexpected end of entry data");
+		}
+		return -1;
+	}
+
+	InputStream openStream(int method, long headerOffset,
+			long compressedSize) throws Exception {
+		ByteBuffer raw = getRawData(headerOffset, compressedSize);
+		if (method == STORED)
+			return new BufferInputStream(raw);
+		checkMethod(method);
+		return new EntryInflaterStream(new BufferInputStream(raw));
+	}
+
+	/**
+	 * Stored entry gives SeekableByteChannel.
+	 */
+	ReadableByteChannel openChannel(int method, long headerOffset,
+			long compressedSize) throws Exception {
+		if (method == STORED)
+			return new BufferChannel(getRawData(headerOffset, compressedSize));
+		return Channels.newChannel(openStream(method, headerOffset,
+				compressedSize));
+	}
+
+	private static void checkMethod(int method) throws Exception {
+		if (method != DEFLATED)
+			throw new Exception("Unsupported compression method " + method);
+	}
+
+	private static class BufferInputStream extends InputStream {
+		private final ByteBuffer buf;
+
+		BufferInputStream(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public int read() {
+			return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			if (!buf.hasRemaining())
+				return -1;
+			len = Math.min(len, buf.remaining());
+			buf.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int k = (int) Math.max(0, Math.min(n, buf.remaining()));
+			buf.position(buf.position() + k);
+			return k;
+		}
+
+		@Override
+		public int available() {
+			return buf.remaining();
+		}
+	}
+
+	/**
+	 * Inflating stream returning its inflater to pool on close.
+	 */
+	private static class EntryInflaterStream extends InflaterInputStream {
+		private boolean eof;
+		private boolean closed;
+
+		EntryInflaterStream(InputStream in) {
+			super(in, InflaterPool.obtain(), BUFFER_SIZE);
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof)
+				throw new EOFException("Unexpected end of entry data");
+			len = in.read(buf, 0, buf.length);
+			if (len < 0) {
+				// raw inflater may need dummy byte after data
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			super.close();
+			InflaterPool.release(inf);
+		}
+	}
+
+	/**
+	 * Read-only seekable channel over buffer.
+	 */
+	private static class BufferChannel implements SeekableByteChannel {
+		private final ByteBuffer buf;
+		private boolean open = true;
+
+		BufferChannel(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!open)
+				throw new ClosedChannelException();
+			if (!buf.hasRemaining())
+				return -1;
+			int n = Math.min(dst.remaining(), buf.remaining());
+			ByteBuffer src = buf.duplicate();
+			src.limit(src.position() + n);
+			dst.put(src);
+			buf.position(buf.position() + n);
+			return n;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			throw new NonWritableChannelException();
+		}
+
+		@Override
+		public long position() throws IOException {
+			if (!open)
+				throw new ClosedChannelException();
+			return buf.position();
+		}
+
+		@Override
+		public SeekableByteChannel position(long newPosition)
+				throws IOException {
+			if (!open)
+				throw new ClosedChannelException();
+			if (newPosition < 0)
+				throw new IllegalArgumentException();
+			buf.position((int) Math.min(newPosition, buf.limit()));
+			return this;
+		}
+
+		@Override
+		public long size() throws IOException {
+			if (!open)
+				throw new ClosedChannelException();
+			return buf.limit();
+		}
+
+		@Override
+		public SeekableByteChannel truncate(long size) {
+			throw new NonWritableChannelException();
+		}
+	}
+}
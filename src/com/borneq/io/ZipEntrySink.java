@@ -0,0 +1,11 @@
+package com.borneq.io;
+
+/**
+ * ArchiveSink which receives also location of zip entry data: compression
+ * method, compressed size and offset of local header in archive file.
+ */
+public interface ZipEntrySink extends ArchiveSink {
+	void addEntry(String path, int flags, long length, long dosTime,
+			int method, long compressedSize, long headerOffset)
+			throws Exception;
+}
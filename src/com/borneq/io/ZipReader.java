@@ -0,0 +1,384 @@
+package com.borneq.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the central directory of a zip archive and feeds its entries to an
+ * ArchiveTree. Only the End-Of-Central-Directory record and the central
+ * directory itself are mapped and parsed; local headers and entry data are
+ * never touched. Entries can go to ArchiveTree or to CompactArchiveTree,
+ * ZipEntrySink gets also location of entry data.
+ */
+public class ZipReader {
+	private static final int EOCD_SIG = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	private static final int ZIP64_LOCATOR_SIZE = 20;
+	private static final int ZIP64_EOCD_SIG = 0x06064b50;
+	private static final int ZIP64_EOCD_SIZE = 56;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int CEN_SIZE = 46;
+	private static final int ZIP64_EXTRA_ID = 0x0001;
+	private static final int MAX_COMMENT = 0xFFFF;
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int HOST_UNIX = 3;
+
+	private static final int S_IFMT = 0xF000;
+	private static final int S_IFDIR = 0x4000;
+	private static final int S_IFREG = 0x8000;
+
+	private static Charset oemCharset;
+
+	private ZipReader() {
+	}
+
+	/**
+	 * Creates ArchiveTree for given zip file, fills it with central directory
+	 * entries and organizes it.
+	 */
+	public static ArchiveTree open(String archiveName) throws Exception {
+		return open(archiveName, false);
+	}
+
+	/**
+	 * As open(archiveName), lazy tree sorts and links each directory on
+	 * first listing, see {@link ArchiveTree#setLazy(boolean)}.
+	 */
+	public static ArchiveTree open(String archiveName, boolean lazy)
+			throws Exception {
+		ArchiveTree tree = new ArchiveTree(archiveName);
+		tree.setLazy(lazy);
+		read(new File(archiveName), tree);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * As open(archiveName), but tree is restored from snapshot in index when
+	 * it is up to date; otherwise archive is read and snapshot is stored.
+	 * Failure to store snapshot does not fail open.
+	 */
+	public static ArchiveTree open(String archiveName, ArchiveIndex index)
+			throws Exception {
+		ArchiveTree tree = index.load(archiveName);
+		if (tree != null)
+			return tree;
+		tree = open(archiveName, false);
+		try {
+			index.save(tree);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return tree;
+	}
+
+	/**
+	 * Creates ArchiveTree of zip archive stored as entry of outer archive, no
+	 * temporary file is used. Stored entry is parsed straight from outer
+	 * archive mapping; compressed one is inflated once and the buffer is kept
+	 * by tree for reading its entries.
+	 */
+	public static ArchiveTree open(ArchiveItem entry, boolean lazy)
+			throws Exception {
+		ByteBuffer data = entry.getData();
+		ArchiveTree tree = new ArchiveTree(entry, data);
+		tree.setLazy(lazy);
+		read(data, tree.getPath(), tree);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * Creates CompactArchiveTree for given zip file, fills it with central
+	 * directory entries and organizes it.
+	 */
+	public static CompactArchiveTree openCompact(String archiveName)
+			throws Exception {
+		CompactArchiveTree tree = new CompactArchiveTree(archiveName);
+		read(new File(archiveName), tree);
+		tree.organize();
+		return tree;
+	}
+
+	/**
+	 * Adds all central directory entries of zip file to sink. Tree behind sink
+	 * must not be organized yet.
+	 */
+	public static void read(File file, ArchiveSink sink) throws Exception {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+				FileChannel channel = raf.getChannel()) {
+			read(new ChannelSource(channel), file.toString(), sink);
+		}
+	}
+
+	/**
+	 * As read(file, sink) for zip archive held in buffer, from its position
+	 * to its limit.
+	 */
+	public static void read(ByteBuffer archive, String name, ArchiveSink sink)
+			throws Exception {
+		read(new BufferSource(archive), name, sink);
+	}
+
+	/**
+	 * Archive bytes mapped from file or sliced from buffer, little endian.
+	 */
+	private static abstract class Source {
+		abstract long size() throws Exception;
+
+		abstract ByteBuffer map(long position, int size) throws Exception;
+	}
+
+	private static class ChannelSource extends Source {
+		private final FileChannel channel;
+
+		ChannelSource(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		long size() throws Exception {
+			return channel.size();
+		}
+
+		@Override
+		ByteBuffer map(long position, int size) throws Exception {
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY,
+					position, size);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		}
+	}
+
+	private static class BufferSource extends Source {
+		private final ByteBuffer archive;
+
+		BufferSource(ByteBuffer archive) {
+			this.archive = archive.slice();
+		}
+
+		@Override
+		long size() {
+			return archive.capacity();
+		}
+
+		@Override
+		ByteBuffer map(long position, int size) {
+			ByteBuffer buf = archive.duplicate();
+			buf.position((int) position);
+			buf.limit((int) position + size);
+			buf = buf.slice();
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		}
+	}
+
+	private static void read(Source source, String name, ArchiveSink sink)
+			throws Exception {
+		long fileSize = source.size();
+		if (fileSize < EOCD_SIZE)
+			throw new Exception("Not a zip archive: " + name);
+		int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT
+				+ ZIP64_LOCATOR_SIZE);
+		long tailStart = fileSize - tailSize;
+		ByteBuffer tail = source.map(tailStart, tailSize);
+		int eocd = findEocd(tail);
+		if (eocd < 0)
+			throw new Exception("Not a zip archive: " + name);
+		long eocdPos = tailStart + eocd;
+
+		long cenSize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+		long cenOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+		long cenEnd = eocdPos;
+
+		int locator = eocd - ZIP64_LOCATOR_SIZE;
+		if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIG) {
+			long zip64Pos = tail.getLong(locator + 8);
+			ByteBuffer zip64 = mapZip64End(source, zip64Pos);
+			if (zip64 == null) {
+				// moved by prepended data, record directly precedes locator
+				zip64Pos = tailStart + locator - ZIP64_EOCD_SIZE;
+				zip64 = mapZip64End(source, zip64Pos);
+				if (zip64 == null)
+					throw new Exception("Invalid zip64 end record: " + name);
+			}
+			cenEnd = zip64Pos;
+			cenSize = zip64.getLong(40);
+			cenOffset = zip64.getLong(48);
+		}
+		// data prepended to archive (e.g. self-extractor stub) shifts central
+		// directory and local headers from their stored offsets
+		long shift = 0;
+		if (cenOffset + cenSize != cenEnd) {
+			shift = cenEnd - cenSize - cenOffset;
+			cenOffset += shift;
+		}
+		if (cenSize < 0 || cenOffset < 0 || cenOffset + cenSize > cenEnd)
+			throw new Exception("Invalid central directory: " + name);
+		if (cenSize > Integer.MAX_VALUE)
+			throw new Exception("Central directory too large: " + name);
+
+		ByteBuffer cen = source.map(cenOffset, (int) cenSize);
+		readCentralDirectory(cen, shift, sink);
+	}
+
+	/**
+	 * Zip64 end record at pos, null if there is none.
+	 */
+	private static ByteBuffer mapZip64End(Source source, long pos)
+			throws Exception {
+		if (pos < 0 || pos + ZIP64_EOCD_SIZE > source.size())
+			return null;
+		ByteBuffer zip64 = source.map(pos, ZIP64_EOCD_SIZE);
+		return zip64.getInt(0) == ZIP64_EOCD_SIG ? zip64 : null;
+	}
+
+	private static int findEocd(ByteBuffer tail) {
+		int minPos = Math.max(0, tail.limit() - EOCD_SIZE - MAX_COMMENT);
+		for (int pos = tail.limit() - EOCD_SIZE; pos >= minPos; pos--) {
+			if (tail.get(pos) == 0x50 && tail.getInt(pos) == EOCD_SIG
+					&& pos + EOCD_SIZE + (tail.getShort(pos + 20) & 0xFFFF) <= tail
+							.limit())
+				return pos;
+		}
+		return -1;
+	}
+
+	/**
+	 * Feeds entries of central directory to sink, shift is added to local
+	 * header offsets.
+	 */
+	private static void readCentralDirectory(ByteBuffer cen, long shift,
+			ArchiveSink sink) throws Exception {
+		byte[] name = new byte[256];
+		// length, compressed size and local header offset
+		long[] sizes = new long[3];
+		ZipEntrySink entrySink = null;
+		if (sink instanceof ZipEntrySink)
+			entrySink = (ZipEntrySink) sink;
+		ByteBuffer src = cen.duplicate();
+		int pos = 0;
+		int end = cen.limit();
+		long count = 0;
+		while (pos + CEN_SIZE <= end) {
+			if (cen.getInt(pos) != CEN_SIG)
+				throw new Exception("Invalid central directory header at entry "
+						+ count);
+			int madeBy = cen.getShort(pos + 4) & 0xFFFF;
+			int gpFlags = cen.getShort(pos + 8) & 0xFFFF;
+			int method = cen.getShort(pos + 10) & 0xFFFF;
+			long dosTime = cen.getInt(pos + 12) & 0xFFFFFFFFL;
+			sizes[0] = cen.getInt(pos + 24) & 0xFFFFFFFFL;
+			sizes[1] = cen.getInt(pos + 20) & 0xFFFFFFFFL;
+			sizes[2] = cen.getInt(pos + 42) & 0xFFFFFFFFL;
+			int nameLen = cen.getShort(pos + 28) & 0xFFFF;
+			int extraLen = cen.getShort(pos + 30) & 0xFFFF;
+			int commentLen = cen.getShort(pos + 32) & 0xFFFF;
+			int extAttr = cen.getInt(pos + 38);
+			int next = pos + CEN_SIZE + nameLen + extraLen + commentLen;
+			if (next > end)
+				throw new Exception("Truncated central directory at entry "
+						+ count);
+			if (sizes[0] == 0xFFFFFFFFL || sizes[1] == 0xFFFFFFFFL
+					|| sizes[2] == 0xFFFFFFFFL)
+				readZip64(cen, pos + CEN_SIZE + nameLen, extraLen, sizes);
+			long length = sizes[0];
+			sizes[2] += shift;
+
+			if (name.length < nameLen)
+				name = new byte[Math.max(nameLen, name.length * 2)];
+			src.position(pos + CEN_SIZE);
+			src.get(name, 0, nameLen);
+			boolean isDirectory = false;
+			if (nameLen > 0 && name[nameLen - 1] == '/') {
+				isDirectory = true;
+				nameLen--;
+			}
+			if (nameLen > 0) {
+				int mode = 0;
+				if ((madeBy >> 8) == HOST_UNIX)
+					mode = (extAttr >>> 16) & 0xFFFF;
+				else if ((extAttr & 0x10) != 0)
+					isDirectory = true;
+				if (isDirectory)
+					mode = (mode & ~S_IFMT) | S_IFDIR;
+				else if ((mode & S_IFMT) == 0)
+					mode |= S_IFREG;
+
+				String path = decodeName(name, nameLen,
+						(gpFlags & FLAG_UTF8) != 0);
+				if (entrySink != null)
+					entrySink.addEntry(path, mode, length, dosTime, method,
+							sizes[1], sizes[2]);
+				else
+					sink.addEntry(path, mode, length, dosTime);
+			}
+			pos = next;
+			count++;
+		}
+	}
+
+	/**
+	 * Replaces values of sizes equal to 0xFFFFFFFF by zip64 extra field
+	 * values, which are present in the same order only for those.
+	 */
+	private static void readZip64(ByteBuffer cen, int extra, int extraLen,
+			long[] sizes) throws Exception {
+		int end = extra + extraLen;
+		while (extra + 4 <= end) {
+			int id = cen.getShort(extra) & 0xFFFF;
+			int size = cen.getShort(extra + 2) & 0xFFFF;
+			if (id == ZIP64_EXTRA_ID) {
+				int field = extra + 4;
+				for (int i = 0; i < sizes.length; i++)
+					if (sizes[i] == 0xFFFFFFFFL) {
+						if (field + 8 > extra + 4 + size)
+							throw new Exception("Short zip64 extra field");
+						sizes[i] = cen.getLong(field);
+						field += 8;
+					}
+				return;
+			}
+			extra += 4 + size;
+		}
+		throw new Exception("Missing zip64 extra field");
+	}
+
+	/**
+	 * Decodes entry name and converts '/' to platform separator. Pure ASCII
+	 * names, the most common case, skip charset decoder.
+	 */
+	private static String decodeName(byte[] name, int len, boolean utf8) {
+		boolean ascii = true;
+		for (int i = 0; i < len; i++) {
+			byte b = name[i];
+			if (b < 0)
+				ascii = false;
+			else if (b == '/' && File.separatorChar != '/')
+				name[i] = (byte) File.separatorChar;
+		}
+		if (ascii)
+			return new String(name, 0, len, StandardCharsets.ISO_8859_1);
+		else if (utf8)
+			return new String(name, 0, len, StandardCharsets.UTF_8);
+		else
+			return new String(name, 0, len, getOemCharset());
+	}
+
+	private static Charset getOemCharset() {
+		if (oemCharset == null) {
+			if (Charset.isSupported("IBM437"))
+				oemCharset = Charset.forName("IBM437");
+			else
+				oemCharset = StandardCharsets.ISO_8859_1;
+		}
+		return oemCharset;
+	}
+}
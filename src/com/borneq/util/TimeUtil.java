@@ -1,18 +1,170 @@
 package com.borneq.util;
 
-import java.util.Date;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
 
 public class TimeUtil {
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+    private static final long DOS_MIN = (1 << 21) | (1 << 16);
+    private static final long DOS_MAX = (127L << 25) | (12 << 21) | (31 << 16)
+            | (23 << 11) | (59 << 5) | 29;
+    private static final int CACHE_SIZE = 1024;
+    // largest offset change, zones without current DST report no savings
+    private static final long MAX_SHIFT = 3 * 60 * 60 * 1000L;
+
+    /*
+     * Zone offset valid for whole day, days containing offset transition or
+     * overlapped by one near their ends are never cached.
+     */
+    private static final class DayOffset {
+        final long day;
+        final int offset;
+
+        DayOffset(long day, int offset) {
+            this.day = day;
+            this.offset = offset;
+        }
+    }
+
+    private static volatile TimeZone zone = TimeZone.getDefault();
+    // keyed by local day for DOS to Java, by UTC day for Java to DOS
+    private static volatile DayOffset[] localCache = new DayOffset[CACHE_SIZE];
+    private static volatile DayOffset[] utcCache = new DayOffset[CACHE_SIZE];
+
+    /*
+     * Sets zone used for DOS time, default zone is taken at class load.
+     */
+    public static void setTimeZone(TimeZone timeZone) {
+        zone = (TimeZone) timeZone.clone();
+        localCache = new DayOffset[CACHE_SIZE];
+        utcCache = new DayOffset[CACHE_SIZE];
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0))
+            q--;
+        return q;
+    }
+
+    /*
+     * Days since 1970-01-01 of proleptic Gregorian date, month 1..12.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        if (month <= 2)
+            year--;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yoe = year - era * 400;
+        int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097L + doe - 719468;
+    }
+
+    /*
+     * Offset to subtract from local time to get UTC.
+     */
+    private static int localOffset(long local) {
+        long day = floorDiv(local, DAY);
+        DayOffset[] cache = localCache;
+        int slot = (int) (day & (CACHE_SIZE - 1));
+        DayOffset entry = cache[slot];
+        if (entry != null && entry.day == day)
+            return entry.offset;
+        TimeZone tz = zone;
+        long start = day * DAY;
+        int offset = tz.getOffset(start - tz.getOffset(start));
+        // transition just outside day still moves its first or last hours
+        if (tz.getOffset(start - offset - MAX_SHIFT) == offset
+                && tz.getOffset(start + DAY - offset + MAX_SHIFT) == offset
+                && tz.getOffset(start - offset) == offset) {
+            cache[slot] = new DayOffset(day, offset);
+            return offset;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /*
+     * Offset to add to UTC time to get local time.
+     */
+    private static int utcOffset(long time) {
+        long day = floorDiv(time, DAY);
+        DayOffset[] cache = utcCache;
+        int slot = (int) (day & (CACHE_SIZE - 1));
+        DayOffset entry = cache[slot];
+        if (entry != null && entry.day == day)
+            return entry.offset;
+        TimeZone tz = zone;
+        int offset = tz.getOffset(day * DAY);
+        if (offset == tz.getOffset(day * DAY + DAY - 1)) {
+            cache[slot] = new DayOffset(day, offset);
+            return offset;
+        }
+        return tz.getOffset(time);
+    }
+
     /*
      * Converts DOS time to Java time (number of milliseconds since epoch).
+     * Out of range fields overflow to next unit as in java.util.Date.
      */
     public static long dosToJavaTime(long dtime) {
-        Date d = new Date((int)(((dtime >> 25) & 0x7f) + 80),
-                          (int)(((dtime >> 21) & 0x0f) - 1),
-                          (int)((dtime >> 16) & 0x1f),
-                          (int)((dtime >> 11) & 0x1f),
-                          (int)((dtime >> 5) & 0x3f),
-                          (int)((dtime << 1) & 0x3e));
-        return d.getTime();
+        int year = (int) ((dtime >> 25) & 0x7f) + 1980;
+        int month = (int) ((dtime >> 21) & 0x0f) - 1;
+        int day = (int) ((dtime >> 16) & 0x1f);
+        int hour = (int) ((dtime >> 11) & 0x1f);
+        int minute = (int) ((dtime >> 5) & 0x3f);
+        int second = (int) ((dtime << 1) & 0x3e);
+        if (month < 0) {
+            year--;
+            month += 12;
+        } else if (month >= 12) {
+            year++;
+            month -= 12;
+        }
+        long local = (daysFromCivil(year, month + 1, 1) + day - 1) * DAY
+                + (hour * 3600 + minute * 60 + second) * 1000L;
+        int offset = localOffset(local);
+        if (offset != Integer.MIN_VALUE)
+            return local - offset;
+        // day with zone transition, let calendar resolve gap and overlap
+        Calendar calendar = new GregorianCalendar(zone);
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, second);
+        return calendar.getTimeInMillis();
+    }
+
+    /*
+     * Converts DOS times to Java times in place.
+     */
+    public static void dosToJavaTime(long[] times) {
+        for (int i = 0; i < times.length; i++)
+            times[i] = dosToJavaTime(times[i]);
+    }
+
+    /*
+     * Converts Java time to DOS time, times before 1980 give 1980-01-01 and
+     * times after 2107 give last DOS time.
+     */
+    public static long javaToDosTime(long time) {
+        long local = time + utcOffset(time);
+        long days = floorDiv(local, DAY);
+        int millis = (int) (local - days * DAY);
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (year < 1980)
+            return DOS_MIN;
+        if (year > 2107)
+            return DOS_MAX;
+        int seconds = millis / 1000;
+        return (year - 1980) << 25 | month << 21 | day << 16
+                | (seconds / 3600) << 11 | (seconds / 60 % 60) << 5
+                | (seconds % 60) >> 1;
     }
 }